@@ -0,0 +1,239 @@
+/* Plays many games between two MoveProviders with no console, for load
+   and soak testing and to check that a change to the engine never loses.
+
+   The providers come from factories and each thread of the pool makes its
+   own pair, as some of them may only be used by one thread at a time: a
+   MonteCarlo keeps its trees between calls and a RandomPlayer its random
+   numbers. A Minimax can be shared between threads, but one per thread
+   also gives each thread a transposition table of its own, so the games
+   do not overwrite each other's entries. A factory that hands back the
+   same Minimax every time is fine too. The first provider plays X in even
+   numbered games and O in odd ones, and X always starts. A provider that
+   gives an illegal move loses the game at once.
+
+   The Report counts wins, draws and losses from the first provider's side,
+   the moves played per second over the whole run, and the time each
+   provider took per move, as SearchMetrics histograms. Given a
+   GameRecord.Writer with setRecorder, every game is also archived */
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Supplier;
+
+class Arena {
+    private Supplier<MoveProvider> first;
+    private Supplier<MoveProvider> second;
+    private int size;
+    private int winLength;
+    private GameRecord.Writer recorder = null;
+
+    //the outcome of a run of games
+    static class Report {
+        LongAdder firstWins = new LongAdder();
+        LongAdder secondWins = new LongAdder();
+        LongAdder draws = new LongAdder();
+        LongAdder illegalMoves = new LongAdder();
+        LongAdder moves = new LongAdder();
+        SearchMetrics.Histogram firstTimes = new SearchMetrics.Histogram();
+        SearchMetrics.Histogram secondTimes = new SearchMetrics.Histogram();
+        long elapsed;
+
+        long games(){
+          return firstWins.sum() + secondWins.sum() + draws.sum();
+        }
+
+        double movesPerSecond(){
+          return elapsed == 0 ? 0 : moves.sum() * 1e9 / elapsed;
+        }
+
+        @Override
+        public String toString(){
+          return String.format("games=%d first won %d, drew %d, lost %d (illegal moves %d)%n"
+                               + "moves=%d %.0f/s%n"
+                               + "first  p50<=%dns p99<=%dns max<=%dns%n"
+                               + "second p50<=%dns p99<=%dns max<=%dns",
+                               games(), firstWins.sum(), draws.sum(), secondWins.sum(),
+                               illegalMoves.sum(), moves.sum(), movesPerSecond(),
+                               firstTimes.percentile(50), firstTimes.percentile(99),
+                               firstTimes.percentile(100), secondTimes.percentile(50),
+                               secondTimes.percentile(99), secondTimes.percentile(100));
+        }
+    }
+
+    Arena(Supplier<MoveProvider> first, Supplier<MoveProvider> second){
+      this(first, second, 3, 3);
+    }
+
+    Arena(Supplier<MoveProvider> first, Supplier<MoveProvider> second,
+          int size, int winLength){
+      this.first = first;
+      this.second = second;
+      this.size = size;
+      this.winLength = winLength;
+    }
+
+    void setRecorder(GameRecord.Writer w){
+      //pass null to stop recording games
+      recorder = w;
+    }
+
+    Report play(int games, int threads){
+      //plays the games on a pool of threads and waits for them all
+      Report report = new Report();
+      AtomicInteger next = new AtomicInteger();
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      long start = System.nanoTime();
+      try {
+        Future<?>[] workers = new Future<?>[threads];
+        for (int t = 0; t < threads; t++){
+          workers[t] = pool.submit(() -> {
+            MoveProvider a = first.get();
+            MoveProvider b = second.get();
+            Board board = new Board(size, winLength);
+            for (int game = next.getAndIncrement(); game < games;
+                 game = next.getAndIncrement()){
+              playGame(board, a, b, game % 2 == 0, report);
+            }
+          });
+        }
+        for (Future<?> worker : workers){
+          worker.get();
+        }
+      } catch (InterruptedException e){
+        Thread.currentThread().interrupt();
+        throw new CancellationException("interrupted");
+      } catch (ExecutionException e){
+        throw new IllegalStateException(e.getCause());
+      } finally {
+        pool.shutdownNow();
+      }
+      report.elapsed = System.nanoTime() - start;
+      return report;
+    }
+
+    //---------Private methods ------------
+
+    private void playGame(Board board, MoveProvider a, MoveProvider b,
+                          boolean firstIsX, Report report){
+      board.initBoard();
+      GameRecord record = null;
+      if (recorder != null){
+        int first = GameRecord.engineOf(a);
+        int second = GameRecord.engineOf(b);
+        record = new GameRecord(size, winLength, firstIsX ? first : second,
+                                firstIsX ? second : first);
+      }
+      while (!board.isGameOver()){
+        Type player = board.getCurrentPlayerType();
+        boolean firstToMove = (player == Type.X) == firstIsX;
+        MoveProvider mover = firstToMove ? a : b;
+        long start = System.nanoTime();
+        String move = mover.chooseMove(board, player);
+        long time = System.nanoTime() - start;
+        (firstToMove ? report.firstTimes : report.secondTimes).record(time);
+        report.moves.increment();
+        if (!board.makeMove(move)){
+          report.illegalMoves.increment();
+          (firstToMove ? report.secondWins : report.firstWins).increment();
+          record(record, board);
+          return;
+        }
+        if (record != null){
+          record.addMove(move);
+        }
+      }
+      record(record, board);
+      if (board.isTie()){
+        report.draws.increment();
+      } else if ((board.getWinnerType() == Type.X) == firstIsX){
+        report.firstWins.increment();
+      } else {
+        report.secondWins.increment();
+      }
+    }
+
+    private void record(GameRecord record, Board board){
+      if (record != null){
+        record.finish(board);
+        recorder.add(record);
+      }
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        Arena program = new Arena(Minimax::new, Minimax::new);
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea Arena");
+
+        testSelfPlay();
+        testAgainstRandom();
+        testAgainstLookup();
+        testDepthLimited();
+        testIllegal();
+        testBigBoard();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testSelfPlay(){
+      //perfect play is always a draw
+      Report r = play(100, 4);
+      assert( r.games() == 100 && r.draws.sum() == 100 );
+      assert( r.moves.sum() >= 100 * 9 - 100 );
+      assert( r.movesPerSecond() > 0 );
+      assert( r.firstTimes.count() + r.secondTimes.count() == r.moves.sum() );
+      assert( r.toString().startsWith("games=100 first won 0, drew 100, lost 0") );
+    }
+
+    private void testAgainstRandom(){
+      AtomicLong seeds = new AtomicLong();
+      Arena arena = new Arena(Minimax::new, () -> new RandomPlayer(seeds.incrementAndGet()));
+      Report r = arena.play(400, 4);
+      assert( r.games() == 400 && r.secondWins.sum() == 0 );
+      assert( r.firstWins.sum() > r.draws.sum() );
+    }
+
+    private void testAgainstLookup(){
+      LookupTable solved = LookupTable.solve();
+      Report r = new Arena(() -> solved, Minimax::new).play(50, 2);
+      assert( r.draws.sum() == 50 );
+    }
+
+    private void testDepthLimited(){
+      //looking one move ahead is not enough to hold a draw. The full
+      //search sees every draw as equal, so it is given the edge opening
+      //that sets a trap, rather than left to pick its start at random
+      Arena arena = new Arena(() -> {
+        Minimax full = new Minimax();
+        return (board, player) -> board.isEmpty() ? "c2" : full.chooseMove(board, player);
+      }, () -> {
+        Minimax shallow = new Minimax();
+        shallow.setDepthLimit(1);
+        return shallow;
+      });
+      Report r = arena.play(200, 4);
+      assert( r.secondWins.sum() == 0 );
+      assert( r.firstWins.sum() > 0 );
+    }
+
+    private void testIllegal(){
+      MoveProvider corner = (board, player) -> "a1";
+      Report r = new Arena(Minimax::new, () -> corner).play(10, 1);
+      assert( r.firstWins.sum() == 10 && r.illegalMoves.sum() == 10 );
+    }
+
+    private void testBigBoard(){
+      AtomicLong seeds = new AtomicLong();
+      Arena arena = new Arena(() -> new RandomPlayer(seeds.incrementAndGet()),
+                              () -> new RandomPlayer(seeds.incrementAndGet()), 7, 4);
+      Report r = arena.play(200, 3);
+      assert( r.games() == 200 && r.illegalMoves.sum() == 0 );
+    }
+}
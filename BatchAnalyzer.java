@@ -0,0 +1,424 @@
+/* Scores a large number of positions at once, for offline analysis.
+
+   Each input line is a board in the "xoxooxeee" form, optionally followed
+   by the player to move ("xoxooxeee o"). Without it the player is worked
+   out from the number of pieces, with X to move when they are equal. The
+   board size comes from the length of the line, and the win length is 3
+   as in Oxo. For each line one Result comes out, in input order: the best
+   move, the value for the player to move (1 win, 0 draw, -1 loss) and the
+   number of moves to the end of the game with best play. An empty board
+   bigger than 3x3 gets an opening move but no search, so its value is
+   not known and shows as "? -1".
+
+   Lines are scored in parallel, in chunks, by one Minimax per thread. The
+   threads share the solved 3x3 game and one transposition table, and
+   positions the solved game does not cover are cached by their canonical
+   form, so a rotation or reflection of a position already scored costs a
+   lookup rather than a search. The cache has a fixed number of slots, a
+   later position taking over the slot of an earlier one, so it stays the
+   same size however many positions go through */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+class BatchAnalyzer implements AutoCloseable {
+    private static final int CHUNK = 1024;
+    private static final int CACHESIZE = 1 << 16;
+    private ExecutorService pool;
+    private int threads;
+    private LookupTable solved = LookupTable.solve();
+    private TranspositionTable table = new TranspositionTable(1 << 20);
+    //scored canonical positions, each keyed by its canonical form and player
+    private AtomicReferenceArray<Result> cache;
+    private ThreadLocal<Minimax> engines = ThreadLocal.withInitial(this::newEngine);
+
+    //the analysis of one input line, with a distance of -1 when the value
+    //is not known
+    static class Result {
+        final String position;
+        final String move;
+        final int value;
+        final int distance;
+        final String error;
+
+        Result(String position, String move, int value, int distance){
+          this.position = position;
+          this.move = move;
+          this.value = value;
+          this.distance = distance;
+          this.error = null;
+        }
+
+        Result(String position, String error){
+          this.position = position;
+          this.move = "";
+          this.value = 0;
+          this.distance = -1;
+          this.error = error;
+        }
+
+        @Override
+        public String toString(){
+          //"xoxooxeee c2 1 1", with "-" for the move once the game is over
+          if (error != null){
+            return position + " error " + error;
+          }
+          return position + " " + (move.isEmpty() ? "-" : move) + " "
+                 + (distance < 0 ? "?" : Integer.toString(value)) + " " + distance;
+        }
+    }
+
+    BatchAnalyzer(int threads){
+      this(threads, CACHESIZE);
+    }
+
+    BatchAnalyzer(int threads, int cacheSize){
+      this.threads = threads;
+      cache = new AtomicReferenceArray<>(cacheSize);
+      pool = Executors.newFixedThreadPool(threads, r -> {
+        Thread t = new Thread(r, "batch-analyzer");
+        t.setDaemon(true);
+        return t;
+      });
+    }
+
+    void analyze(Stream<String> positions, Consumer<Result> out){
+      //out is called from the calling thread, once per line, in order.
+      //Only a few chunks are in flight at once, so the input can be far
+      //bigger than memory
+      Iterator<String> lines = positions.iterator();
+      ArrayDeque<Future<Result[]>> pending = new ArrayDeque<>();
+      while (lines.hasNext()){
+        String[] chunk = new String[CHUNK];
+        int count = 0;
+        while (count < CHUNK && lines.hasNext()){
+          chunk[count++] = lines.next();
+        }
+        String[] work = Arrays.copyOf(chunk, count);
+        pending.add(pool.submit(() -> analyzeAll(work)));
+        if (pending.size() > 2 * threads){
+          emit(pending.poll(), out);
+        }
+      }
+      while (!pending.isEmpty()){
+        emit(pending.poll(), out);
+      }
+    }
+
+    void analyze(Path in, PrintStream out) throws IOException {
+      try (Stream<String> lines = Files.lines(in, StandardCharsets.UTF_8)){
+        analyze(lines.filter(line -> !line.trim().isEmpty()), r -> out.println(r));
+      }
+    }
+
+    Result analyze(String line){
+      //scores one line on the calling thread
+      String[] parts = line.trim().split("\\s+");
+      if (parts.length > 2){
+        return new Result(line, "expected a board and an optional player");
+      }
+      String position = parts[0].toLowerCase();
+      int size = (int) Math.round(Math.sqrt(position.length()));
+      if (size * size != position.length() || size < 3 || size > Board.MAXSIZE){
+        return new Result(line, "not a square board");
+      }
+      int xs = 0;
+      int os = 0;
+      for (int k = 0; k < position.length(); k++){
+        char c = position.charAt(k);
+        if (c == 'x'){ xs++; }
+        else if (c == 'o'){ os++; }
+        else if (c != 'e'){ return new Result(line, "unknown square '" + c + "'"); }
+      }
+      Type player = toMove(xs, os);
+      if (parts.length == 2){
+        player = parts[1].equalsIgnoreCase("x") ? Type.X
+               : parts[1].equalsIgnoreCase("o") ? Type.O : Type.Impossible;
+      }
+      if (player == Type.Impossible){
+        return new Result(line, "cannot tell who is to move");
+      }
+
+      Board board = new Board(size, Math.min(size, 3));
+      board.setBoard(position);
+      if (board.isGameOver()){
+        int value = board.isTie() ? 0 : board.getWinnerType() == player ? 1 : -1;
+        return new Result(line, "", value, 0);
+      }
+      if (solved.covers(board)){
+        return search(line, board, player);
+      }
+      //search the canonical form once, then turn its move back around
+      Symmetry sym = board.getSymmetry();
+      int t = sym.canonicalTransform(position);
+      String canonical = sym.transform(t, position);
+      //searched outside the cache, so a long search holds up no other
+      //thread. Two threads may both search a position, to the same result
+      String key = canonical + " " + player;
+      int slot = Math.floorMod(key.hashCode(), cache.length());
+      Result known = cache.get(slot);
+      if (known == null || !known.position.equals(key)){
+        Board b = new Board(size, Math.min(size, 3));
+        b.setBoard(canonical);
+        known = search(key, b, player);
+        cache.set(slot, known);
+      }
+      if (known.move.isEmpty()){
+        return new Result(line, "", known.value, known.distance);
+      }
+      int move = toSquare(known.move, size);
+      return new Result(line, moveName(sym.unmap(t, move), size), known.value, known.distance);
+    }
+
+    int cacheSize(){
+      int n = 0;
+      for (int slot = 0; slot < cache.length(); slot++){
+        if (cache.get(slot) != null){
+          n++;
+        }
+      }
+      return n;
+    }
+
+    @Override
+    public void close(){
+      pool.shutdown();
+    }
+
+    //---------Private methods ------------
+
+    private Result[] analyzeAll(String[] lines){
+      Result[] results = new Result[lines.length];
+      for (int n = 0; n < lines.length; n++){
+        results[n] = analyze(lines[n]);
+      }
+      return results;
+    }
+
+    private Result search(String line, Board board, Type player){
+      Minimax engine = engines.get();
+      engine.setPlayingAs(player);
+      String move = engine.getBestMove(board);
+      if (board.isEmpty()){
+        //the opening move is picked without a search. 3x3 is a draw, but
+        //bigger boards may not be, 4x4 with 3 in a row is won by X
+        if (solved.covers(board)){
+          return new Result(line, move, 0, board.countEmpty());
+        }
+        return new Result(line, move, 0, -1);
+      }
+      return new Result(line, move, engine.getValue(), engine.getDistance());
+    }
+
+    private Minimax newEngine(){
+      Minimax engine = new Minimax();
+      engine.setLookupTable(solved);
+      engine.setTranspositionTable(table);
+      return engine;
+    }
+
+    private void emit(Future<Result[]> chunk, Consumer<Result> out){
+      try {
+        for (Result r : chunk.get()){
+          out.accept(r);
+        }
+      } catch (InterruptedException e){
+        Thread.currentThread().interrupt();
+        throw new CancellationException("interrupted");
+      } catch (ExecutionException e){
+        throw new IllegalStateException(e.getCause());
+      }
+    }
+
+    private void clearCache(){
+      for (int slot = 0; slot < cache.length(); slot++){
+        cache.set(slot, null);
+      }
+    }
+
+    private static Type toMove(int xs, int os){
+      if (xs == os || xs + 1 == os){
+        return Type.X;
+      }
+      if (xs == os + 1){
+        return Type.O;
+      }
+      return Type.Impossible;
+    }
+
+    private static int toSquare(String move, int size){
+      return (move.charAt(0) - 'a') * size + Integer.parseInt(move.substring(1)) - 1;
+    }
+
+    private static String moveName(int square, int size){
+      return (char)('a' + square / size) + Integer.toString(square % size + 1);
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        try (BatchAnalyzer program = new BatchAnalyzer(4)){
+          program.run();
+        }
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea BatchAnalyzer");
+
+        testToMove();
+        testErrors();
+        testOne();
+        testSymmetry();
+        testOrder();
+        testCacheLimit();
+        testFile();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testToMove(){
+      assert( toMove(0, 0) == Type.X );
+      assert( toMove(1, 0) == Type.O );
+      assert( toMove(3, 4) == Type.X );
+      assert( toMove(3, 1) == Type.Impossible );
+      assert( toSquare("c12", 12) == 35 );
+      assert( moveName(35, 12).equals("c12") );
+    }
+
+    private void testErrors(){
+      assert( analyze("xoxooxee").error != null );
+      assert( analyze("xoxooxeez").error != null );
+      assert( analyze("xxxxxxeee").error != null );
+      assert( analyze("xoxooxeee q").error != null );
+      assert( analyze("xoxooxeee x y").error != null );
+      assert( analyze("xoxooxeez").toString().startsWith("xoxooxeez error") );
+    }
+
+    private void testOne(){
+      Result r = analyze("xoxooxeee");
+      assert( r.move.equals("c3") && r.value == 1 && r.distance == 1 );
+      assert( r.toString().equals("xoxooxeee c3 1 1") );
+      r = analyze("xoxooxeee o");
+      assert( r.move.equals("c2") && r.value == 1 && r.distance == 1 );
+      //perfect play from here is a draw at the end of the board
+      r = analyze("xeeeeeeee");
+      assert( r.move.equals("b2") && r.value == 0 && r.distance == 8 );
+      r = analyze("eeeeeeeee");
+      assert( r.value == 0 && r.distance == 9 && r.move.length() == 2 );
+      //an empty bigger board is opened on but not scored
+      r = analyze("eeeeeeeeeeeeeeee");
+      assert( r.distance == -1 && r.move.length() == 2 );
+      assert( r.toString().equals("eeeeeeeeeeeeeeee " + r.move + " ? -1") );
+      //game over
+      r = analyze("xxxooeeee");
+      assert( r.move.isEmpty() && r.value == -1 && r.distance == 0 );
+      assert( r.toString().equals("xxxooeeee - -1 0") );
+    }
+
+    private void testSymmetry(){
+      //4x4 positions are searched once per canonical form
+      clearCache();
+      String position = "xeeeoeeexeeeeeee";
+      Symmetry sym = Symmetry.of(4);
+      Result first = analyze(position);
+      assert( cacheSize() == 1 );
+      Board b = new Board(4, 3);
+      b.setBoard(position);
+      Minimax minimax = new Minimax();
+      minimax.setPlayingAs(Type.O);
+      //the canonical form may break ties between moves differently
+      minimax.getBestMove(b);
+      assert( first.value == minimax.getValue() );
+      assert( first.distance == minimax.getDistance() );
+      assert( b.getCell(toSquare(first.move, 4)) == Type.Empty );
+      for (int t = 1; t < Symmetry.COUNT; t++){
+        Result r = analyze(sym.transform(t, position));
+        int k = toSquare(first.move, 4);
+        assert( r.move.equals(moveName(sym.map(t, k), 4)) );
+        assert( r.value == first.value && r.distance == first.distance );
+      }
+      assert( cacheSize() == 1 );
+    }
+
+    private void testOrder(){
+      //many positions in many chunks come back in the order they went in
+      List<String> in = new ArrayList<>();
+      List<Type> players = new ArrayList<>();
+      Random random = new Random(7);
+      for (int n = 0; n < 5 * CHUNK + 17; n++){
+        Board b = new Board();
+        int moves = random.nextInt(9);
+        for (int m = 0; m < moves && !b.isGameOver(); m++){
+          int k;
+          do { k = random.nextInt(9); } while (b.getCell(k) != Type.Empty);
+          b.makeMove(k / 3, k % 3);
+        }
+        in.add(b.getBoard());
+        players.add(b.getCurrentPlayerType());
+      }
+      List<Result> out = new ArrayList<>();
+      analyze(in.stream(), out::add);
+      assert( out.size() == in.size() );
+      for (int n = 0; n < in.size(); n++){
+        assert( out.get(n).position.equals(in.get(n)) );
+        assert( out.get(n).error == null );
+        Board b = new Board();
+        b.setBoard(in.get(n));
+        if (!b.isGameOver() && !b.isEmpty()){
+          assert( out.get(n).move.equals(
+                    moveName(solved.getMove(b, players.get(n)), 3)) );
+        }
+      }
+    }
+
+    private void testFile(){
+      try {
+        Path in = Files.createTempFile("oxo", ".txt");
+        Files.write(in, Arrays.asList("xoxooxeee", "", "xoxooxeee o", "bad"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        analyze(in, new PrintStream(bytes, true));
+        Files.delete(in);
+        String[] lines = bytes.toString().split("\\R");
+        assert( lines.length == 3 );
+        assert( lines[0].equals("xoxooxeee c3 1 1") );
+        assert( lines[1].equals("xoxooxeee o c2 1 1") );
+        assert( lines[2].startsWith("bad error") );
+      } catch (IOException e){
+        throw new Error(e);
+      }
+    }
+
+    private void testCacheLimit(){
+      //more positions than slots leaves the cache no bigger, and a
+      //position that lost its slot is scored the same again
+      try (BatchAnalyzer small = new BatchAnalyzer(2, 4)){
+        List<String> in = new ArrayList<>();
+        Random random = new Random(11);
+        while (in.size() < 40){
+          Board b = new Board(4, 3);
+          for (int m = 0; m < 6 && !b.isGameOver(); m++){
+            int k;
+            do { k = random.nextInt(16); } while (b.getCell(k) != Type.Empty);
+            b.makeMove(k / 4, k % 4);
+          }
+          if (!b.isGameOver()){
+            in.add(b.getBoard());
+          }
+        }
+        List<Result> out = new ArrayList<>();
+        small.analyze(in.stream(), out::add);
+        assert( small.cacheSize() <= 4 );
+        Result again = small.analyze(in.get(0));
+        assert( again.value == out.get(0).value && again.distance == out.get(0).distance );
+      }
+    }
+}
@@ -0,0 +1,248 @@
+/* Times the hot paths of Board and Minimax so a change that slows them
+   down shows up before it is shipped.
+
+   Each benchmark is warmed up, then run for a number of measured rounds.
+   For each one the throughput (ops/s), the average time per call (ns/op)
+   and the bytes allocated per call (B/op, from the thread's allocation
+   counter) are printed, along with the spread of the rounds.
+
+     java Benchmark             runs every benchmark
+     java Benchmark minimax     runs those with "minimax" in their name
+     java -ea Benchmark         runs the tests of the harness itself
+
+   Run without -ea for real numbers, as asserts slow the code down */
+
+import java.util.*;
+import java.util.function.IntSupplier;
+
+class Benchmark {
+    private static final long WARMUP = 1000000000L;
+    private static final long ROUND = 1000000000L;
+    private static final int ROUNDS = 5;
+    private List<String> names = new ArrayList<>();
+    private List<IntSupplier> ops = new ArrayList<>();
+    //results are summed here so the JIT cannot drop the calls
+    private int sink = 0;
+    private Object kept = null;
+
+    public static void main(String[] args) {
+        Benchmark program = new Benchmark();
+        program.run(args);
+    }
+
+    // Deal with the command line arguments
+    void run(String[] args) {
+        boolean testing = false;
+        assert(testing = true);
+        if (args.length == 0 && testing) test();
+        else measureAll(args);
+    }
+
+    //one measured benchmark
+    static class Result {
+        long calls;
+        long nanos;
+        long bytes;
+        double[] rounds;
+
+        double throughput(){
+          return calls * 1e9 / nanos;
+        }
+
+        double averageTime(){
+          return (double) nanos / calls;
+        }
+
+        double allocation(){
+          //-1 if the JVM cannot count allocations
+          return bytes < 0 ? -1 : (double) bytes / calls;
+        }
+
+        double error(){
+          //largest distance of a round's ns/op from the average
+          double worst = 0;
+          for (double r : rounds){
+            worst = Math.max(worst, Math.abs(r - averageTime()));
+          }
+          return worst;
+        }
+    }
+
+    void add(String name, IntSupplier op){
+      names.add(name);
+      ops.add(op);
+    }
+
+    void measureAll(String[] filters){
+      addBoardBenchmarks();
+      addMinimaxBenchmarks();
+      System.out.printf("%-28s %14s %12s %10s %10s%n",
+                        "Benchmark", "ops/s", "ns/op", "+-", "B/op");
+      for (int n = 0; n < names.size(); n++){
+        if (!matches(names.get(n), filters)){
+          continue;
+        }
+        Result r = measure(ops.get(n), WARMUP, ROUNDS, ROUND);
+        System.out.printf("%-28s %14.0f %12.1f %10.1f %10.1f%n", names.get(n),
+                          r.throughput(), r.averageTime(), r.error(), r.allocation());
+      }
+    }
+
+    Result measure(IntSupplier op, long warmup, int rounds, long round){
+      //calls op in batches, growing the batch during warm up until one
+      //batch takes long enough that reading the clock costs nothing
+      int batch = 1;
+      long start = System.nanoTime();
+      while (System.nanoTime() - start < warmup){
+        long t = System.nanoTime();
+        runBatch(op, batch);
+        if (System.nanoTime() - t < 1000000 && batch < (1 << 30)){
+          batch *= 2;
+        }
+      }
+      Result result = new Result();
+      result.rounds = new double[rounds];
+      for (int r = 0; r < rounds; r++){
+        long calls = 0;
+        long bytes = allocated();
+        long t = System.nanoTime();
+        long elapsed;
+        do {
+          runBatch(op, batch);
+          calls += batch;
+          elapsed = System.nanoTime() - t;
+        } while (elapsed < round);
+        bytes = allocated() - bytes;
+        result.calls += calls;
+        result.nanos += elapsed;
+        result.bytes = bytes < 0 || result.bytes < 0 ? -1 : result.bytes + bytes;
+        result.rounds[r] = (double) elapsed / calls;
+      }
+      return result;
+    }
+
+    //---------Private methods ------------
+
+    private void addBoardBenchmarks(){
+      //two boards taken in turn, so a call cannot be hoisted out of the
+      //loop as if it always gave the same answer
+      Board[] boards = {new Board(), new Board()};
+      boards[0].setBoard("xoxooxeee");
+      boards[1].setBoard("xoxooxeex");
+      int[] turn = {0};
+      add("board.isGameOver", () -> boards[turn[0]++ & 1].isGameOver() ? 1 : 0);
+      add("board.cloneBoard", () -> boards[turn[0]++ & 1].cloneBoard().countEmpty());
+      add("board.getBoard", () -> boards[turn[0]++ & 1].getBoard().length());
+      PatternEvaluator pattern = new PatternEvaluator();
+      add("evaluator.pattern", () -> pattern.evaluate(boards[turn[0]++ & 1], Type.O) + 1000);
+      Board target = new Board();
+      add("board.setBoard", () -> {
+        target.setBoard("xoxooxeee");
+        return target.countEmpty();
+      });
+      //raw move making: every line of play four plies deep on 3x3
+      Board empty = new Board();
+      add("perft.3x3.depth4", () -> (int) Perft.count(empty, Type.X, 4).totalNodes());
+    }
+
+    private void addMinimaxBenchmarks(){
+      //empty board, the mid-game positions of Minimax.testGetBestMove, and
+      //games a move or two from the end. The table is off so every call
+      //searches rather than remembering the last answer
+      addSearch("minimax.empty", "eeeeeeeee", Type.X);
+      addSearch("minimax.opening", "xeeeeeeee", Type.O);
+      addSearch("minimax.mid.xoxooxeee.x", "xoxooxeee", Type.X);
+      addSearch("minimax.mid.xoxooxeee.o", "xoxooxeee", Type.O);
+      addSearch("minimax.mid.eoexexoee.x", "eoexexoee", Type.X);
+      addSearch("minimax.end.xoxooxxee.o", "xoxooxxee", Type.O);
+      addSearch("minimax.end.xoxoxoeoe.x", "xoxoxoeoe", Type.X);
+    }
+
+    private void addSearch(String name, String position, Type player){
+      Board board = new Board();
+      board.setBoard(position);
+      Minimax minimax = new Minimax();
+      minimax.setTranspositionTable(null);
+      minimax.setPlayingAs(player);
+      add(name, () -> minimax.getBestMove(board).length());
+    }
+
+    private void runBatch(IntSupplier op, int batch){
+      int sum = 0;
+      for (int n = 0; n < batch; n++){
+        sum += op.getAsInt();
+      }
+      sink += sum;
+    }
+
+    private boolean matches(String name, String[] filters){
+      if (filters.length == 0){
+        return true;
+      }
+      for (String f : filters){
+        if (name.contains(f)){
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static long allocated(){
+      //bytes allocated so far by this thread, -1 if it cannot be read
+      java.lang.management.ThreadMXBean bean =
+        java.lang.management.ManagementFactory.getThreadMXBean();
+      if (!(bean instanceof com.sun.management.ThreadMXBean)){
+        return -1;
+      }
+      return ((com.sun.management.ThreadMXBean) bean)
+               .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // ---------- Testing -----------
+    // Run the tests
+    void test() {
+        testMeasure();
+        testAllocation();
+        testMatches();
+        testBenchmarks();
+        System.out.println("All tests pass");
+    }
+
+    void testMeasure(){
+      Result r = measure(() -> 1, 1000000, 3, 1000000);
+      assert( r.calls > 0 );
+      assert( r.rounds.length == 3 );
+      assert( r.throughput() > 0 );
+      assert( Math.abs(r.averageTime() * r.throughput() - 1e9) < 1 );
+      assert( r.error() >= 0 );
+    }
+
+    void testAllocation(){
+      if (allocated() < 0){
+        return;
+      }
+      Result none = measure(() -> 1, 1000000, 2, 1000000);
+      assert( none.allocation() < 1 );
+      Result some = measure(() -> ((int[])(kept = new int[64])).length,
+                            1000000, 2, 1000000);
+      assert( some.allocation() >= 64 * 4 );
+    }
+
+    void testMatches(){
+      assert( matches("board.setBoard", new String[0]) );
+      assert( matches("board.setBoard", new String[]{"minimax", "board"}) );
+      assert( !matches("board.setBoard", new String[]{"minimax"}) );
+    }
+
+    void testBenchmarks(){
+      //every benchmark runs and gives its usual answer
+      addBoardBenchmarks();
+      addMinimaxBenchmarks();
+      assert( names.size() == ops.size() );
+      for (IntSupplier op : ops){
+        assert( op.getAsInt() >= 0 );
+      }
+      int search = names.indexOf("minimax.mid.xoxooxeee.x");
+      assert( ops.get(search).getAsInt() == 2 );
+    }
+}
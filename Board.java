@@ -1,31 +1,99 @@
 /* Stores Moves on the board, automatically switches current Player
-   Checks for GameOver, win, tie conditions */
+   Checks for GameOver, win, tie conditions
+
+   The board is SIZE x SIZE and a player wins with WINLENGTH in a row,
+   3 and 3 unless given to the constructor. It is held as two bitboards,
+   one per player, where square (row, col) is bit row * SIZE + col.
+   Wins are tracked as moves are made: the Board keeps a count of each
+   player's pieces on every winning line (see Lines), and placing or
+   removing a piece only updates the lines through that square. A line
+   whose count reaches WINLENGTH is a win, so the winner, a tie and the end
+   of the game are read off in constant time, with no scan. It also keeps,
+   for each player and number of pieces, how many lines hold that many of
+   the player's pieces and none of the other's, which is all an Evaluator
+   needs to score the lines still open
+
+   A Zobrist hash of the position is kept up to date as squares change,
+   so searches can key caches on it without rescanning the board. The hash
+   of each of the 8 symmetric images of the position is kept as well, which
+   gives the canonical key and the symmetries of the position for free */
 
 class Board {
     private Type winner = Type.Empty;
     private int SIZE = 3;
-    private Type board[][] = {{Type.Empty, Type.Empty, Type.Empty},
-                              {Type.Empty, Type.Empty, Type.Empty},
-                              {Type.Empty, Type.Empty, Type.Empty}};
+    private int WINLENGTH = 3;
+    private int CELLS = 9;
+    static final int MAXSIZE = 26;
+    private static final long[][] ZOBRIST = zobristKeys(MAXSIZE * MAXSIZE);
+    private long[] xBits;
+    private long[] oBits;
+    private int moveCount = 0;
+    private int xWins = 0;
+    private int oWins = 0;
+    private Lines lines;
+    private int[] xLines;
+    private int[] oLines;
+    //xOpen[n] is the number of lines with n X pieces and no O pieces
+    private int[] xOpen;
+    private int[] oOpen;
+    private Symmetry symmetry;
+    private long[] hashes = new long[Symmetry.COUNT];
     private Type currentPlayer = Type.X;
-    private boolean isFull = false;
+
+    Board(){
+      this(3, 3);
+    }
+
+    Board(int size, int winLength){
+      if (size < 1 || size > MAXSIZE || winLength < 1 || winLength > size){
+        throw new IllegalArgumentException("Cannot play " + winLength
+                                           + " in a row on " + size + "x" + size);
+      }
+      SIZE = size;
+      WINLENGTH = winLength;
+      CELLS = size * size;
+      xBits = new long[(CELLS + 63) / 64];
+      oBits = new long[(CELLS + 63) / 64];
+      symmetry = Symmetry.of(size);
+      lines = Lines.of(size, winLength);
+      xLines = new int[lines.count()];
+      oLines = new int[lines.count()];
+      xOpen = new int[winLength + 1];
+      oOpen = new int[winLength + 1];
+      xOpen[0] = lines.count();
+      oOpen[0] = lines.count();
+    }
 
    void initBoard(){
         clearBoard();
         winner = Type.Empty;
         currentPlayer = Type.X;
-        isFull = false;
    }
 
+    int getSize(){
+      return SIZE;
+    }
+
+    int getWinLength(){
+      return WINLENGTH;
+    }
+
     Type getValue(int row, int col) {
         if ( isValid(row, col) ){
-          return board[row][col];
+          return getCell(row * SIZE + col);
         }
         return Type.Impossible;
     }
 
+    Type getCell(int k){
+      //the square numbered row * SIZE + col
+      if (has(xBits, k)){ return Type.X; }
+      if (has(oBits, k)){ return Type.O; }
+      return Type.Empty;
+    }
+
     String getCurrentPlayer(){
-        if (currentPlayer.equals(Type.X)){
+        if (currentPlayer == Type.X){
             return "X";
         }
         return "O";
@@ -36,12 +104,12 @@ class Board {
     }
 
     boolean makeMove(String s){
-        //accepts string input eg "3b" and
+        //accepts string input eg "b3" (or "c12" on big boards) and
         //places move according to currentPlayer on board
         int row, col;
 
         //reject incorrect length strings
-        if (s == null || s.length() != 2 ){
+        if (s == null || s.length() < 2 || s.length() > 3 ){
            return false;
         }
 
@@ -61,10 +129,9 @@ class Board {
 
     boolean makeMove(int row, int col){
       //automatically keeps track of current player and places move
-      if ( getValue(row, col).equals(Type.Empty) ){
+      if ( getValue(row, col) == Type.Empty ){
           setValue(currentPlayer, row, col);
           switchPlayer();
-          if ( isFull() ){ isFull = true;}
           return true;
       }
       return false;
@@ -73,22 +140,20 @@ class Board {
     void makeMove(int row, int col, Type player){
       //place a move while specifying player, useful for tests in other classes
       setValue(player, row, col);
-      if (isFull()){ isFull = true;}
+    }
+
+    void undoMove(int row, int col){
+      //takes back a move made with makeMove(row, col, player), restoring
+      //the winner and fullness state without allocating
+      setValue(Type.Empty, row, col);
     }
 
     boolean isGameOver(){
-      winner = isWin();
-      if ( !winner.equals(Type.Empty) ){
-        return true;
-      }
-      if ( isTie() ){
-        return true;
-      }
-      return false;
+      return winner != Type.Empty || moveCount == CELLS;
     }
 
     String getWinner(){
-      if (winner.equals(Type.X)){
+      if (winner == Type.X){
           return "X";
       }
       return "O";
@@ -100,146 +165,195 @@ class Board {
 
     String getBoard(){
       //returns the current board as a String
-      StringBuilder builder = new StringBuilder();
-      for (int i = 0; i < SIZE; i++){
-          for(int j = 0; j < SIZE; j++){
-              if (getValue(i,j).equals(Type.O)){
-                builder.append("o");
-              } else if (getValue(i,j).equals(Type.X)){
-                builder.append("x");
-              } else {
-                builder.append("e");
-              }
+      char[] cells = new char[CELLS];
+      for (int k = 0; k < cells.length; k++){
+          if (has(oBits, k)){
+            cells[k] = 'o';
+          } else if (has(xBits, k)){
+            cells[k] = 'x';
+          } else {
+            cells[k] = 'e';
           }
       }
-      return builder.toString();
+      return new String(cells);
     }
 
     Board cloneBoard(){
       //creates a clone of the current board
-       Board new_board = new Board();
-       new_board.initBoard();
-       for(int i = 0; i < SIZE; i++){
-         for(int j = 0; j < SIZE; j++){
-             new_board.board[i][j] = board[i][j];
-         }
-       }
+       Board new_board = new Board(SIZE, WINLENGTH);
+       new_board.copyFrom(this);
        return new_board;
     }
 
+    void copyFrom(Board other){
+      //overwrites this board with the state of another, so a search can
+      //reuse one Board rather than cloning
+       if (other.CELLS != CELLS){
+         SIZE = other.SIZE;
+         CELLS = other.CELLS;
+         xBits = new long[other.xBits.length];
+         oBits = new long[other.oBits.length];
+         symmetry = other.symmetry;
+       }
+       WINLENGTH = other.WINLENGTH;
+       if (other.lines != lines){
+         lines = other.lines;
+         xLines = new int[lines.count()];
+         oLines = new int[lines.count()];
+         xOpen = new int[WINLENGTH + 1];
+         oOpen = new int[WINLENGTH + 1];
+       }
+       System.arraycopy(other.xBits, 0, xBits, 0, xBits.length);
+       System.arraycopy(other.oBits, 0, oBits, 0, oBits.length);
+       System.arraycopy(other.hashes, 0, hashes, 0, hashes.length);
+       System.arraycopy(other.xLines, 0, xLines, 0, xLines.length);
+       System.arraycopy(other.oLines, 0, oLines, 0, oLines.length);
+       System.arraycopy(other.xOpen, 0, xOpen, 0, xOpen.length);
+       System.arraycopy(other.oOpen, 0, oOpen, 0, oOpen.length);
+       moveCount = other.moveCount;
+       xWins = other.xWins;
+       oWins = other.oWins;
+       winner = other.winner;
+       currentPlayer = other.currentPlayer;
+    }
+
     void setBoard(String s){
       //set the board from the String, useful for testing the AI Minimax
-       int k = 0;
-       for (int i = 0; i < SIZE; i++){
-         for (int j = 0; j < SIZE; j++){
-            board[i][j] = charToType(s.charAt(k++));
-         }
+       clearBoard();
+       for (int k = 0; k < CELLS; k++){
+          setCell(charToType(s.charAt(k)), k);
        }
     }
 
     boolean isTie(){
-      if( isFull() && isWin().equals(Type.Empty) ){
-        return true;
-      }
-      return false;
+      return moveCount == CELLS && winner == Type.Empty;
     }
 
     boolean containsType(Type t){
       //to check for the existence of empty squares
-       for(int i = 0; i < SIZE; i ++){
-         for(int j = 0; j < SIZE; j++){
-           if (board[i][j].equals(t)){
-             return true;
-           }
-         }
+       switch(t){
+         case X:     return count(xBits) != 0;
+         case O:     return count(oBits) != 0;
+         case Empty: return moveCount != CELLS;
+         default:    return false;
        }
-       return false;
     }
 
     boolean isEmpty(){
-      for(int i = 0; i < SIZE; i ++){
-        for(int j = 0; j < SIZE; j++){
-          if (!board[i][j].equals(Type.Empty)){
-            return false;
-          }
-        }
-      }
-      return true;
+      return moveCount == 0;
     }
 
-    //---------Private methods ------------
+    int getMask(Type t){
+      //the bitboard of one player, bit row * SIZE + col, for boards of
+      //up to 32 squares
+      int full = (int)((1L << CELLS) - 1);
+      if (t == Type.X){ return (int) xBits[0]; }
+      if (t == Type.O){ return (int) oBits[0]; }
+      return full & ~(int)(xBits[0] | oBits[0]);
+    }
 
-    private void clearBoard(){
-      //set the board to al empty
-       for (int i = 0; i < SIZE; i++){
-           for(int j = 0; j < SIZE; j++){
-               board[i][j] = Type.Empty;
-           }
-       }
-       isFull = false;
+    long getHash(){
+      //Zobrist hash of the pieces on the board, not of the player to move
+      return hashes[0];
     }
 
-    private Type isWin(){
-      //returns Type.O or Type.X for win, Type.Empty for no win
-      Type temp = Type.Empty;
+    long getCanonicalHash(){
+      //the same for all 8 symmetric images of the position
+      return hashes[getCanonicalTransform()];
+    }
 
-      temp = checkRows();
-      if (!temp.equals(Type.Empty)){
-        return temp;
+    int getCanonicalTransform(){
+      //the Symmetry transform taking this position to its canonical form
+      int best = 0;
+      for (int t = 1; t < Symmetry.COUNT; t++){
+        if (hashes[t] < hashes[best]){
+          best = t;
+        }
       }
+      return best;
+    }
 
-      temp = checkCols();
-      if (!temp.equals(Type.Empty)){
-        return temp;
+    int getSymmetries(){
+      //bit t is set when transform t leaves the position unchanged
+      int symmetries = 1;
+      for (int t = 1; t < Symmetry.COUNT; t++){
+        if (hashes[t] == hashes[0] && isSymmetric(t)){
+          symmetries |= 1 << t;
+        }
       }
+      return symmetries;
+    }
 
-      temp = checkDiag();
+    Symmetry getSymmetry(){
+      return symmetry;
+    }
 
-      return temp;
+    int countEmpty(){
+      return CELLS - moveCount;
     }
 
-    private Type checkRows(){
-      for (int i = 0; i < SIZE; i++){
-        if ((!board[i][0].equals(Type.Empty)) &&
-            board[i][0].equals(board[i][1]) &&
-            board[i][0].equals(board[i][2]) ){
-              return board[i][0];
-            }
-      }
-      return Type.Empty;
+    Lines getLines(){
+      return lines;
     }
 
-    private Type checkCols(){
-      //checking for win
-      for (int i = 0; i < SIZE; i++){
-        if ((!board[0][i].equals(Type.Empty)) &&
-            board[0][i].equals(board[1][i]) &&
-            board[0][i].equals(board[2][i]) ){
-              return board[0][i];
-            }
+    int getLineCount(Type t, int line){
+      //pieces of t's on the line numbered as in getLines()
+      return t == Type.X ? xLines[line] : oLines[line];
+    }
+
+    int countOpenLines(Type t, int pieces){
+      //lines holding exactly this many of t's pieces and none of the
+      //other player's, so lines t could still complete
+      int[] open = t == Type.X ? xOpen : oOpen;
+      return pieces < 0 || pieces >= open.length ? 0 : open[pieces];
+    }
+
+    //---------Private methods ------------
+
+    private void clearBoard(){
+      //set the board to al empty
+       for (int w = 0; w < xBits.length; w++){
+         xBits[w] = 0;
+         oBits[w] = 0;
+       }
+       clearHashes();
+       java.util.Arrays.fill(xLines, 0);
+       java.util.Arrays.fill(oLines, 0);
+       java.util.Arrays.fill(xOpen, 0);
+       java.util.Arrays.fill(oOpen, 0);
+       xOpen[0] = lines.count();
+       oOpen[0] = lines.count();
+       moveCount = 0;
+       xWins = 0;
+       oWins = 0;
+       winner = Type.Empty;
+    }
+
+    private Type isWin(){
+      //returns Type.O or Type.X for win, Type.Empty for no win
+      if (xWins > 0){
+        return Type.X;
+      }
+      if (oWins > 0){
+        return Type.O;
       }
       return Type.Empty;
     }
 
-    private Type checkDiag(){
-      //checking for win of either player
-      if ((!board[0][0].equals(Type.Empty)) &&
-          board[0][0].equals(board[1][1]) &&
-          board[0][0].equals(board[2][2]) ){
-            return board[0][0];
+    private boolean isSymmetric(int t){
+      for (int k = 0; k < CELLS; k++){
+        int image = symmetry.map(t, k);
+        if (has(xBits, k) != has(xBits, image) || has(oBits, k) != has(oBits, image)){
+          return false;
+        }
       }
-      if ((!board[0][2].equals(Type.Empty)) &&
-          board[0][2].equals(board[1][1]) &&
-          board[0][2].equals(board[2][0]) ){
-            return board[0][2];
-          }
-      return Type.Empty;
+      return true;
     }
 
     private boolean isValid(int row, int col){
       //to check if a move is valid
-      if (row < 0 || row > SIZE ||
-          col < 0 || col > SIZE ){
+      if (row < 0 || row >= SIZE ||
+          col < 0 || col >= SIZE ){
           return false;
       }
       return true;
@@ -249,27 +363,20 @@ class Board {
           //accepts input "b2" and returns numeric board coordinates
           //returns negative values for incorrect input
           int[] coord   = {0, 0};
-          int i;
 
           coord[0] = convertChar(s.charAt(0));
-          coord[1] = convertInt(s.charAt(1));
+          coord[1] = convertNumber(s.substring(1));
 
           return coord;
     }
 
     private int convertChar(char c){
       //convert letter to coordinate
-      c = Character.toLowerCase(c);
-      switch( c ){
-        case 'a':
-           return 0;
-        case 'b':
-           return 1;
-        case 'c':
-           return 2;
-        default:
-           return -1;
+      int row = Character.toLowerCase(c) - 'a';
+      if (row < 0 || row >= SIZE){
+        return -1;
       }
+      return row;
     }
 
     private int convertInt(char c){
@@ -283,8 +390,22 @@ class Board {
       }
     }
 
+    private int convertNumber(String s){
+      //convert column number, which may have two digits, to coordinate
+      if (s.length() == 1){
+        return convertInt(s.charAt(0));
+      }
+      if (s.length() != 2 || s.charAt(0) < '1' || s.charAt(0) > '9'
+          || s.charAt(1) < '0' || s.charAt(1) > '9'){
+        return -1;
+      }
+      int i = Integer.parseInt(s);
+      if (i > SIZE){return -1;}
+      return i-1;
+    }
+
      private void switchPlayer(){
-         if ( currentPlayer.equals(Type.X) ){
+         if ( currentPlayer == Type.X ){
              currentPlayer = Type.O;
              return;
          }
@@ -294,17 +415,126 @@ class Board {
      private boolean setValue(Type value, int row, int col){
        //sets the value of a square to given value
         if ( isValid(row, col) ){
-           board[row][col] = value;
+           setCell(value, row * SIZE + col);
            return true;
         }
         return false;
      }
 
+     private void setCell(Type value, int k){
+       //replaces whatever is on square k, keeping the win counts and
+       //hashes up to date
+        if (has(xBits, k)){ removePiece(xBits, 0, k); }
+        if (has(oBits, k)){ removePiece(oBits, 1, k); }
+        if (value == Type.X){
+          addPiece(xBits, 0, k);
+        } else if (value == Type.O){
+          addPiece(oBits, 1, k);
+        }
+        winner = isWin();
+     }
+
+     private void addPiece(long[] bits, int player, int k){
+        if (player == 0){ xWins += addToLines(xLines, oLines, xOpen, oOpen, k); }
+        else { oWins += addToLines(oLines, xLines, oOpen, xOpen, k); }
+        bits[k >>> 6] |= 1L << k;
+        moveCount++;
+        toggleHash(player, k);
+     }
+
+     private void removePiece(long[] bits, int player, int k){
+        bits[k >>> 6] &= ~(1L << k);
+        if (player == 0){ xWins -= removeFromLines(xLines, oLines, xOpen, oOpen, k); }
+        else { oWins -= removeFromLines(oLines, xLines, oOpen, xOpen, k); }
+        moveCount--;
+        toggleHash(player, k);
+     }
+
+     private int addToLines(int[] counts, int[] others, int[] open,
+                            int[] othersOpen, int k){
+       //counts a piece on k into each line through it, giving the number
+       //of lines it completes. A line open to the player moves up one in
+       //open, and a line that was open to the other player is now closed
+        int completed = 0;
+        for (int line : lines.through(k)){
+          int mine = counts[line]++;
+          if (others[line] == 0){
+            open[mine]--;
+            open[mine + 1]++;
+          }
+          if (mine == 0){
+            othersOpen[others[line]]--;
+          }
+          if (mine + 1 == WINLENGTH){
+            completed++;
+          }
+        }
+        return completed;
+     }
+
+     private int removeFromLines(int[] counts, int[] others, int[] open,
+                                 int[] othersOpen, int k){
+       //the opposite of addToLines, giving the number of lines it breaks
+        int broken = 0;
+        for (int line : lines.through(k)){
+          int mine = counts[line]--;
+          if (others[line] == 0){
+            open[mine]--;
+            open[mine - 1]++;
+          }
+          if (mine == 1){
+            othersOpen[others[line]]++;
+          }
+          if (mine == WINLENGTH){
+            broken++;
+          }
+        }
+        return broken;
+     }
+
+     private static boolean has(long[] bits, int k){
+        return (bits[k >>> 6] & (1L << k)) != 0;
+     }
+
+     private static int count(long[] bits){
+        int n = 0;
+        for (long word : bits){
+          n += Long.bitCount(word);
+        }
+        return n;
+     }
+
+     private void toggleHash(int player, int k){
+       //adds or removes a piece from the hash of every symmetric image
+        for (int t = 0; t < Symmetry.COUNT; t++){
+          hashes[t] ^= ZOBRIST[player][symmetry.map(t, k)];
+        }
+     }
+
+     private void clearHashes(){
+        for (int t = 0; t < Symmetry.COUNT; t++){
+          hashes[t] = 0;
+        }
+     }
+
+     private static long[][] zobristKeys(int cells){
+       //fixed seed so hashes are the same from run to run
+        java.util.SplittableRandom random = new java.util.SplittableRandom(0x0A0B0C0DL);
+        long[][] keys = new long[2][cells];
+        for (int p = 0; p < 2; p++){
+          for (int k = 0; k < cells; k++){
+            keys[p][k] = random.nextLong();
+          }
+        }
+        return keys;
+     }
+
      private void setBoard(char[][] setup){
        //sets the board to a char array configuration
+        clearBoard();
         for(int i = 0; i < SIZE; i++){
           for(int j = 0; j < SIZE; j++){
-            board[i][j] = charToType(setup[i][j]);
+            setCell(charToType(setup[i][j]), i * SIZE + j);
           }
         }
      }
@@ -326,14 +556,7 @@ class Board {
 
      private boolean isFull(){
        //to check for game over
-       for(int i = 0; i < SIZE; i ++){
-         for(int j = 0; j < SIZE; j++){
-           if (board[i][j].equals(Type.Empty)){
-             return false;
-           }
-         }
-       }
-       return true;
+       return moveCount == CELLS;
      }
 
     // ---------- Testing -----------
@@ -364,6 +587,14 @@ class Board {
         testIsWin();
         testIsTie();
         testIsGameOver();
+        testContainsType();
+        testCloneBoard();
+        testUndoMove();
+        testLineCounts();
+        testOpenLines();
+        testHash();
+        testCanonicalHash();
+        testBigBoards();
 
         System.out.println("All tests pass");
     }
@@ -371,7 +602,7 @@ class Board {
     private void testClearBoard() {
         for (int i = 0; i < SIZE; i++){
             for(int j = 0; j < SIZE; j++){
-                assert( board[i][j].equals(Type.Empty) );
+                assert( getValue(i,j).equals(Type.Empty) );
             }
         }
     }
@@ -379,7 +610,7 @@ class Board {
     private void testInitBoard(){
         initBoard();
         assert( currentPlayer.equals(Type.X) );
-        assert( isFull == false );
+        assert( !isFull() );
     }
 
     private void testIsValid(){
@@ -566,26 +797,26 @@ class Board {
 
        setBoard(b1);
        for(int i = 0; i < SIZE; i++){
-         assert( board[i][2].equals(Type.X) );
+         assert( getValue(i,2).equals(Type.X) );
        }
-       assert( board[0][0].equals(Type.Empty) );
-       assert( board[0][1].equals(Type.Empty) );
-       assert( board[1][0].equals(Type.O) );
-       assert( board[1][1].equals(Type.O) );
-       assert( board[2][0].equals(Type.Empty) );
-       assert( board[2][1].equals(Type.O) );
+       assert( getValue(0,0).equals(Type.Empty) );
+       assert( getValue(0,1).equals(Type.Empty) );
+       assert( getValue(1,0).equals(Type.O) );
+       assert( getValue(1,1).equals(Type.O) );
+       assert( getValue(2,0).equals(Type.Empty) );
+       assert( getValue(2,1).equals(Type.O) );
 
        setBoard(b2);
        for(int i = 0; i < SIZE; i++){
          for(int j = 0; j < SIZE; j++){
-           assert( board[i][j].equals(Type.O) );
+           assert( getValue(i,j).equals(Type.O) );
          }
        }
 
        setBoard(b3);
        for(int i = 0; i < SIZE; i++){
          for(int j = 0; j < SIZE; j++){
-           assert( board[i][j].equals(Type.X) );
+           assert( getValue(i,j).equals(Type.X) );
          }
        }
     }
@@ -677,4 +908,230 @@ class Board {
       assert( isGameOver() );
       assert( winner.equals(Type.Empty) );
     }
+
+    private void testContainsType(){
+      initBoard();
+      assert( isEmpty() );
+      assert( containsType(Type.Empty) );
+      assert( !containsType(Type.X) );
+      assert( !containsType(Type.O) );
+
+      setBoard("xeeeeeeeo");
+      assert( !isEmpty() );
+      assert( containsType(Type.X) );
+      assert( containsType(Type.O) );
+      assert( containsType(Type.Empty) );
+
+      setBoard("oxxxooxxo");
+      assert( !containsType(Type.Empty) );
+      assert( !containsType(Type.Impossible) );
+    }
+
+    private void testCloneBoard(){
+      setBoard("xoxooxeee");
+      Board clone = cloneBoard();
+      assert( clone.getBoard().equals("xoxooxeee") );
+      clone.makeMove(2, 2, Type.X);
+      assert( clone.isGameOver() );
+      assert( getBoard().equals("xoxooxeee") );
+      assert( !isGameOver() );
+    }
+
+    private void testLineCounts(){
+      //counts kept move by move match counts made from scratch
+      java.util.Random random = new java.util.Random(3);
+      Board b = new Board(5, 4);
+      Board fresh = new Board(5, 4);
+      for (int game = 0; game < 50; game++){
+        b.initBoard();
+        int[] played = new int[25];
+        int moves = 0;
+        while (!b.isGameOver()){
+          int k;
+          do { k = random.nextInt(25); } while (b.getCell(k) != Type.Empty);
+          b.makeMove(k / 5, k % 5);
+          played[moves++] = k;
+        }
+        for (int m = moves; m > moves / 2; m--){
+          b.undoMove(played[m - 1] / 5, played[m - 1] % 5);
+          fresh.setBoard(b.getBoard());
+          assert( java.util.Arrays.equals(b.xLines, fresh.xLines) );
+          assert( java.util.Arrays.equals(b.oLines, fresh.oLines) );
+          assert( java.util.Arrays.equals(b.xOpen, fresh.xOpen) );
+          assert( java.util.Arrays.equals(b.oOpen, fresh.oOpen) );
+          assert( b.getWinnerType() == fresh.getWinnerType() );
+          assert( b.isGameOver() == fresh.isGameOver() );
+        }
+      }
+    }
+
+    private void testOpenLines(){
+      //x o e
+      //e x e   X has the b2-c3 diagonal with 2, and 3 lines with 1 that O
+      //e e e   has not touched; the only line with an O is closed to it
+      Board b = new Board();
+      b.setBoard("xoeexeeee");
+      assert( b.countOpenLines(Type.X, 2) == 1 );
+      assert( b.countOpenLines(Type.X, 1) == 3 );
+      assert( b.countOpenLines(Type.X, 0) == 2 );
+      assert( b.countOpenLines(Type.O, 1) == 0 );
+      assert( b.countOpenLines(Type.O, 0) == 2 );
+      assert( b.countOpenLines(Type.X, 3) == 0 && b.countOpenLines(Type.X, 4) == 0 );
+      int total = 0;
+      for (int n = 0; n <= 3; n++){
+        total += b.countOpenLines(Type.X, n);
+      }
+      assert( total == 6 );
+      //the same after a copy onto a board of another size
+      Board copy = new Board(7, 4);
+      copy.copyFrom(b);
+      assert( copy.countOpenLines(Type.X, 2) == 1 && copy.countOpenLines(Type.O, 0) == 2 );
+      int diagonal = b.getLines().through(8)[b.getLines().through(8).length - 1];
+      assert( b.getLineCount(Type.X, diagonal) == 2 );
+      assert( b.getLineCount(Type.O, diagonal) == 0 );
+    }
+
+    private void testUndoMove(){
+      setBoard("xoxooxeee");
+      makeMove(2, 2, Type.X);
+      assert( isGameOver() );
+      assert( winner.equals(Type.X) );
+      undoMove(2, 2);
+      assert( getValue(2,2).equals(Type.Empty) );
+      assert( winner.equals(Type.Empty) );
+      assert( !isGameOver() );
+
+      setBoard("oxxxooxxe");
+      makeMove(2, 2, Type.O);
+      assert( isFull() );
+      undoMove(2, 2);
+      assert( !isFull() );
+
+      Board copy = new Board();
+      copy.copyFrom(this);
+      assert( copy.getBoard().equals("oxxxooxxe") );
+    }
+
+    private void testHash(){
+      initBoard();
+      assert( getHash() == 0 );
+      makeMove(1, 1, Type.X);
+      long centre = getHash();
+      assert( centre != 0 );
+      makeMove(0, 0, Type.O);
+      makeMove(2, 2, Type.X);
+      //the same position reached by a different move order
+      Board other = new Board();
+      other.makeMove(2, 2, Type.X);
+      other.makeMove(0, 0, Type.O);
+      other.makeMove(1, 1, Type.X);
+      assert( other.getHash() == getHash() );
+      //undo restores the hash
+      undoMove(2, 2);
+      undoMove(0, 0);
+      assert( getHash() == centre );
+      //overwriting a piece changes the hash
+      makeMove(1, 1, Type.O);
+      assert( getHash() != centre );
+      //setBoard gives the same hash as playing the moves
+      setBoard("oeeexeeex");
+      assert( other.getHash() == getHash() );
+      assert( countEmpty() == 6 );
+      assert( getMask(Type.X) == 0b100010000 );
+      assert( getMask(Type.O) == 0b000000001 );
+      assert( getMask(Type.Empty) == 0b011101110 );
+    }
+
+    private void testCanonicalHash(){
+      //all four corner openings share a canonical hash
+      setBoard("xeeeeeeee");
+      long corner = getCanonicalHash();
+      setBoard("eexeeeeee");
+      assert( getCanonicalHash() == corner );
+      setBoard("eeeeeeeex");
+      assert( getCanonicalHash() == corner );
+      setBoard("exeeeeeee");
+      assert( getCanonicalHash() != corner );
+
+      //the canonical transform agrees with the hash of the transformed board
+      setBoard("oexexeeeo");
+      int t = getCanonicalTransform();
+      Board image = new Board();
+      image.setBoard(symmetry.transform(t, getBoard()));
+      assert( image.getHash() == getCanonicalHash() );
+
+      //symmetries of a position
+      initBoard();
+      assert( getSymmetries() == 0xFF );
+      setBoard("xeeeeeeee");
+      //only the identity and the main diagonal keep a1 in place
+      assert( getSymmetries() == ((1 << 0) | (1 << 6)) );
+      setBoard("xoeeeeeee");
+      assert( getSymmetries() == 1 );
+    }
+
+    private void testBigBoards(){
+      //4 in a row on 4x4
+      Board b = new Board(4, 4);
+      assert( b.getSize() == 4 && b.getWinLength() == 4 );
+      b.setBoard("xxxeoooeeeeeeeee");
+      assert( !b.isGameOver() );
+      b.makeMove(0, 3, Type.X);
+      assert( b.isGameOver() && b.getWinnerType().equals(Type.X) );
+      b.undoMove(0, 3);
+      assert( !b.isGameOver() && b.getWinnerType().equals(Type.Empty) );
+      b.setBoard("oeeeeoeeeeoeeeeo");
+      assert( b.getWinnerType().equals(Type.O) );
+      b.setBoard("eeeoeeoeeoeeoeee");
+      assert( b.getWinnerType().equals(Type.O) );
+
+      //3 in a row on 5x5, found away from the edges
+      b = new Board(5, 3);
+      b.makeMove(1, 1, Type.X);
+      b.makeMove(3, 3, Type.X);
+      assert( !b.isGameOver() );
+      b.makeMove(2, 2, Type.X);
+      assert( b.getWinnerType().equals(Type.X) );
+      b.undoMove(2, 2);
+      assert( b.getWinnerType().equals(Type.Empty) );
+
+      //a line longer than needed still wins, and taking away the middle
+      //of it leaves two short lines
+      b = new Board(15, 5);
+      for (int col = 2; col < 13; col++){
+        b.makeMove(7, col, Type.O);
+      }
+      assert( b.getWinnerType().equals(Type.O) );
+      b.undoMove(7, 7);
+      assert( b.getWinnerType().equals(Type.O) );
+      b.undoMove(7, 3);
+      assert( b.getWinnerType().equals(Type.O) );
+      b.undoMove(7, 10);
+      assert( b.getWinnerType().equals(Type.Empty) );
+      assert( b.countEmpty() == 225 - 8 );
+
+      //two digit columns
+      b.initBoard();
+      assert( b.makeMove("o15") );
+      assert( b.getValue(14, 14).equals(Type.X) );
+      assert( b.makeMove("a10") );
+      assert( b.getValue(0, 9).equals(Type.O) );
+      assert( !b.makeMove("a16") );
+      assert( !b.makeMove("p1") );
+      assert( !b.makeMove("a01") );
+      assert( b.getBoard().length() == 225 );
+
+      //copying between sizes
+      Board small = new Board();
+      small.copyFrom(b);
+      assert( small.getBoard().equals(b.getBoard()) );
+
+      boolean thrown = false;
+      try {
+        new Board(3, 4);
+      } catch (IllegalArgumentException e){
+        thrown = true;
+      }
+      assert( thrown );
+    }
 }
@@ -10,15 +10,33 @@ class Display {
       private String playAgain;
       private String playingAs;
       private Type currentPlayer = Type.X; //X always starts
+      //one Scanner for every prompt, a new one each time could swallow
+      //input the last one had read ahead
+      private Scanner scanner = new Scanner(System.in);
 
       void Intro(){
+         Intro(3, 3);
+      }
+
+      void Intro(int size, int winLength){
+         SIZE = size;
+         StringBuilder grid = new StringBuilder("\n                     ");
+         for (int col = 1; col <= Math.min(size, 3); col++){
+            grid.append(String.format("%3d", col));
+         }
+         for (int row = 0; row < Math.min(size, 3); row++){
+            char r = (char)('a' + row);
+            grid.append("\n                    " + r);
+            for (int col = 1; col <= Math.min(size, 3); col++){
+               grid.append(String.format("%3s", r + "" + col));
+            }
+         }
          String intro = "\n\nWelcome to Noughts and Crosses!\n" +
-         "\nPlayers take turns making moves - first to get 3 in a row wins." +
+         "\nPlayers take turns making moves - first to get " + winLength +
+         " in a row wins." +
+         "\nThe board is " + size + "x" + size + "." +
          "\nEnter by selecting the grid value:\n" +
-         "\n                      1  2  3   " +
-         "\n                    a a1 a2 a3  " +
-         "\n                    b b1 b2 b3  " +
-         "\n                    c c1 c2 c3 \n";
+         grid + "\n";
          System.out.println(intro);
          System.out.println("");
       }
@@ -26,14 +44,12 @@ class Display {
       String oneOrTwoPlayers(){
         String oneOrTwo = "\nOne or two players? (1/2)";
         System.out.println(oneOrTwo);
-        Scanner scanner = new Scanner(System.in);
         String choice = scanner.nextLine();
         return choice;
       }
 
       String getMove(String currentPlayer){
           System.out.println("Player " + currentPlayer + "s move: ");
-          Scanner scanner = new Scanner(System.in);
           move = scanner.nextLine();
           System.out.println("You picked " + move);
           return move;
@@ -53,7 +69,6 @@ class Display {
 
       boolean newGame(){
         System.out.println("\nPlay again? (y/n)");
-        Scanner scanner = new Scanner(System.in);
         playAgain = scanner.nextLine();
         playAgain = playAgain.toLowerCase();
         System.out.println("");
@@ -65,19 +80,22 @@ class Display {
 
       void drawBoard(String b){
          b = b.toLowerCase();
-         String rows = "abc";
-         int r = 0;
-         System.out.print("\n  1 2 3");
-         for (int i = 0; i < SIZE * 3; i++){
+         SIZE = (int) Math.round(Math.sqrt(b.length()));
+         int width = SIZE < 10 ? 2 : 3;
+         System.out.print("\n ");
+         for (int col = 1; col <= SIZE; col++){
+            System.out.print(String.format("%" + width + "d", col));
+         }
+         for (int i = 0; i < SIZE * SIZE; i++){
             if (i % SIZE == 0 ){
-              System.out.print("\n" + rows.charAt(r++) +" " );
+              System.out.print("\n" + (char)('a' + i / SIZE));
             }
             if (b.charAt(i) == 'x'){
-                System.out.print("X ");
+                System.out.print(String.format("%" + width + "s", "X"));
             } else if (b.charAt(i) == 'o'){
-                System.out.print("O ");
+                System.out.print(String.format("%" + width + "s", "O"));
             } else {
-                System.out.print("  ");
+                System.out.print(String.format("%" + width + "s", ""));
             }
         }
         System.out.println("");
@@ -85,7 +103,6 @@ class Display {
 
       Type playingAs(){
         System.out.println("\nWould you like to play as X or O? (o/x)");
-        Scanner scanner = new Scanner(System.in);
         playingAs = scanner.nextLine();
         playingAs = playingAs.toLowerCase();
         System.out.println("");
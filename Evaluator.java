@@ -0,0 +1,15 @@
+/* Scores a position that is not over yet, for a search that has to stop
+   looking before the end of the game. The score is for side, the player
+   to move: positive when side is ahead, negative when it is behind. It
+   must stay within LIMIT either way, so that no guess is ever worth as
+   much as a game actually won or lost.
+
+   Evaluators are called at every leaf of a depth or time limited search,
+   so they should be cheap. PatternEvaluator is the usual one. They may be
+   called from several threads at once on different Boards */
+
+interface Evaluator {
+    int LIMIT = 999;
+
+    int evaluate(Board board, Type side);
+}
@@ -0,0 +1,537 @@
+/* A finished (or abandoned) game in a compact binary form, for archiving
+   very many games. A file of them is a header followed by the records one
+   after another:
+
+     int   magic        "OXOG"
+     int   version
+
+   and then for each game
+
+     byte  board size
+     byte  win length
+     byte  engines      X's engine in the high 4 bits, O's in the low 4
+     byte  result       0 unfinished, 1 X won, 2 O won, 3 draw
+     short move count
+     int   duration     milliseconds from the first move to the last
+     moves              the squares played, row * size + col, in order,
+                        a byte each, or two on boards of over 256 squares
+
+   All numbers are big-endian, and a 3x3 game takes 15 to 19 bytes.
+
+   A Writer appends records to a file from a thread of its own, so the game
+   loop only hands a record over and never waits on the disk. A Reader maps
+   the file and steps through the records in place, reading the moves of
+   each straight from the mapping without copying them out */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+class GameRecord {
+    static final int MAGIC = 0x4F584F47;
+    static final int VERSION = 1;
+    static final int HEADER = 8;
+    static final int HUMAN = 0, MINIMAX = 1, MONTE_CARLO = 2, RANDOM = 3,
+                     LOOKUP = 4, OTHER = 15;
+    private static final int FIXED = 10;
+    private int size;
+    private int winLength;
+    private int xEngine;
+    private int oEngine;
+    private Type result = Type.Empty;
+    private boolean finished = false;
+    private int duration = 0;
+    private int[] moves;
+    private int count = 0;
+    private long start = 0;
+
+    GameRecord(int size, int winLength, int xEngine, int oEngine){
+      this.size = size;
+      this.winLength = winLength;
+      this.xEngine = xEngine;
+      this.oEngine = oEngine;
+      moves = new int[size * size];
+    }
+
+    void addMove(int square){
+      //timing starts with the first move
+      if (count == 0){
+        start = System.nanoTime();
+      }
+      moves[count++] = square;
+      duration = (int) Math.min(Integer.MAX_VALUE, (System.nanoTime() - start) / 1000000);
+    }
+
+    void addMove(String move){
+      //a move in the "b3" form that has already been played
+      addMove((move.charAt(0) - 'a') * size + Integer.parseInt(move.substring(1)) - 1);
+    }
+
+    void finish(Board board){
+      //takes the result from the board at the end of the game
+      finished = board.isGameOver();
+      result = board.isTie() ? Type.Empty : board.getWinnerType();
+    }
+
+    int getSize(){ return size; }
+    int getWinLength(){ return winLength; }
+    int getXEngine(){ return xEngine; }
+    int getOEngine(){ return oEngine; }
+    int getDuration(){ return duration; }
+    int getMoveCount(){ return count; }
+    int getMove(int n){ return moves[n]; }
+
+    boolean isFinished(){
+      return finished;
+    }
+
+    Type getWinner(){
+      //X or O, or Empty for a draw or a game not finished
+      return result;
+    }
+
+    Board replay(){
+      //the board at the end of the game
+      Board board = new Board(size, winLength);
+      for (int n = 0; n < count; n++){
+        board.makeMove(moves[n] / size, moves[n] % size);
+      }
+      return board;
+    }
+
+    int encodedSize(){
+      return FIXED + count * moveBytes(size);
+    }
+
+    void encode(ByteBuffer out){
+      out.put((byte) size).put((byte) winLength);
+      out.put((byte)((xEngine << 4) | (oEngine & 0xF)));
+      out.put((byte)(!finished ? 0 : result == Type.X ? 1 : result == Type.O ? 2 : 3));
+      out.putShort((short) count).putInt(duration);
+      for (int n = 0; n < count; n++){
+        if (moveBytes(size) == 1){
+          out.put((byte) moves[n]);
+        } else {
+          out.putShort((short) moves[n]);
+        }
+      }
+    }
+
+    static int engineOf(MoveProvider provider){
+      if (provider instanceof Minimax){ return MINIMAX; }
+      if (provider instanceof MonteCarlo){ return MONTE_CARLO; }
+      if (provider instanceof RandomPlayer){ return RANDOM; }
+      if (provider instanceof LookupTable){ return LOOKUP; }
+      return OTHER;
+    }
+
+    //appends records to a file on a thread of its own
+    static class Writer implements AutoCloseable {
+        private static final GameRecord END = new GameRecord(1, 1, 0, 0);
+        private FileChannel out;
+        private BlockingQueue<GameRecord> queue;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+        private Thread thread;
+        private LongAdder written = new LongAdder();
+        private LongAdder dropped = new LongAdder();
+        private volatile IOException failure = null;
+
+        Writer(Path path) throws IOException {
+          this(path, 1 << 16);
+        }
+
+        Writer(Path path, int capacity) throws IOException {
+          //adds to the end of the file, starting it if it is new. A file
+          //that is not a game record file is left alone
+          out = FileChannel.open(path, StandardOpenOption.CREATE,
+                                 StandardOpenOption.READ, StandardOpenOption.WRITE);
+          if (out.size() == 0){
+            ByteBuffer header = ByteBuffer.allocate(HEADER).putInt(MAGIC).putInt(VERSION);
+            header.flip();
+            while (header.hasRemaining()){ out.write(header); }
+          } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            out.read(header, 0);
+            header.flip();
+            if (header.remaining() < HEADER || header.getInt() != MAGIC
+                || header.getInt() != VERSION){
+              out.close();
+              throw new IOException(path + " is not a game record file");
+            }
+          }
+          out.position(out.size());
+          queue = new ArrayBlockingQueue<>(capacity);
+          thread = new Thread(this::drain, "game-record-writer");
+          thread.setDaemon(true);
+          thread.start();
+        }
+
+        boolean add(GameRecord record){
+          //hands the record to the writer thread without waiting. If the
+          //writer is that far behind the record is dropped and counted
+          if (queue.offer(record)){
+            return true;
+          }
+          dropped.increment();
+          return false;
+        }
+
+        long getWritten(){ return written.sum(); }
+        long getDropped(){ return dropped.sum(); }
+
+        @Override
+        public void close() throws IOException {
+          //writes out everything added so far
+          boolean interrupted = false;
+          while (true){
+            try {
+              queue.put(END);
+              break;
+            } catch (InterruptedException e){
+              interrupted = true;
+            }
+          }
+          while (thread.isAlive()){
+            try {
+              thread.join();
+            } catch (InterruptedException e){
+              interrupted = true;
+            }
+          }
+          if (interrupted){
+            Thread.currentThread().interrupt();
+          }
+          out.close();
+          if (failure != null){
+            throw failure;
+          }
+        }
+
+        private void drain(){
+          //after a failed write the records are still taken, so adding and
+          //closing never wait on a full queue, but they are thrown away
+          while (true){
+            GameRecord record;
+            try {
+              record = queue.take();
+            } catch (InterruptedException e){
+              return;
+            }
+            //take whatever else is waiting before going to the disk
+            try {
+              while (record != END && record != null){
+                if (failure == null){
+                  if (buffer.remaining() < record.encodedSize()){
+                    flush();
+                  }
+                  record.encode(buffer);
+                  written.increment();
+                }
+                record = queue.poll();
+              }
+              if (failure == null){
+                flush();
+              }
+            } catch (IOException e){
+              failure = e;
+            }
+            if (record == END){
+              return;
+            }
+          }
+        }
+
+        private void flush() throws IOException {
+          buffer.flip();
+          while (buffer.hasRemaining()){
+            out.write(buffer);
+          }
+          buffer.clear();
+        }
+    }
+
+    //steps through the records of a file, in place
+    static class Reader implements AutoCloseable {
+        private static final long WINDOW = 1 << 30;
+        private FileChannel in;
+        private long length;
+        private MappedByteBuffer map;
+        private long mapStart;
+        private long next = HEADER;
+        private int at = -1;
+        private int bytesPerMove = 1;
+
+        Reader(Path path) throws IOException {
+          in = FileChannel.open(path, StandardOpenOption.READ);
+          length = in.size();
+          mapAt(0);
+          if (length < HEADER || map.getInt(0) != MAGIC || map.getInt(4) != VERSION){
+            in.close();
+            throw new IOException(path + " is not a game record file");
+          }
+        }
+
+        boolean next(){
+          //moves to the next game, false at the end of the file or at a
+          //game cut short by a crash while writing it
+          if (next + FIXED > length){
+            return false;
+          }
+          if (next + FIXED > mapStart + map.capacity()){
+            mapAt(next);
+          }
+          int size = map.get((int)(next - mapStart) + 0) & 0xFF;
+          int moves = map.getShort((int)(next - mapStart) + 4) & 0xFFFF;
+          long end = next + FIXED + (long) moves * moveBytes(size);
+          if (end > length){
+            return false;
+          }
+          if (end > mapStart + map.capacity()){
+            mapAt(next);
+          }
+          at = (int)(next - mapStart);
+          bytesPerMove = moveBytes(size);
+          next = end;
+          return true;
+        }
+
+        int getSize(){ return map.get(at) & 0xFF; }
+        int getWinLength(){ return map.get(at + 1) & 0xFF; }
+        int getXEngine(){ return (map.get(at + 2) >> 4) & 0xF; }
+        int getOEngine(){ return map.get(at + 2) & 0xF; }
+        int getMoveCount(){ return map.getShort(at + 4) & 0xFFFF; }
+        int getDuration(){ return map.getInt(at + 6); }
+
+        boolean isFinished(){
+          return map.get(at + 3) != 0;
+        }
+
+        Type getWinner(){
+          int result = map.get(at + 3);
+          return result == 1 ? Type.X : result == 2 ? Type.O : Type.Empty;
+        }
+
+        int getMove(int n){
+          if (bytesPerMove == 1){
+            return map.get(at + FIXED + n) & 0xFF;
+          }
+          return map.getShort(at + FIXED + 2 * n) & 0xFFFF;
+        }
+
+        GameRecord get(){
+          //a copy of the current game
+          GameRecord record = new GameRecord(getSize(), getWinLength(),
+                                             getXEngine(), getOEngine());
+          record.count = getMoveCount();
+          for (int n = 0; n < record.count; n++){
+            record.moves[n] = getMove(n);
+          }
+          record.duration = getDuration();
+          record.finished = isFinished();
+          record.result = getWinner();
+          return record;
+        }
+
+        @Override
+        public void close() throws IOException {
+          in.close();
+        }
+
+        private void mapAt(long position){
+          try {
+            mapStart = position;
+            map = in.map(FileChannel.MapMode.READ_ONLY, position,
+                         Math.min(WINDOW, length - position));
+          } catch (IOException e){
+            throw new UncheckedIOException(e);
+          }
+        }
+    }
+
+    //---------Private methods ------------
+
+    private static int moveBytes(int size){
+      return size * size <= 256 ? 1 : 2;
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        GameRecord program = new GameRecord(3, 3, HUMAN, MINIMAX);
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea GameRecord");
+
+        try {
+          Path dir = Files.createTempDirectory("oxo");
+          testEncode();
+          testRoundTrip(dir);
+          testAppend(dir);
+          testBigBoard(dir);
+          testTruncated(dir);
+          testNotRecords(dir);
+          testMany(dir);
+          for (Path f : Files.list(dir).toArray(Path[]::new)){
+            Files.delete(f);
+          }
+          Files.delete(dir);
+        } catch (IOException e){
+          throw new Error(e);
+        }
+
+        System.out.println("All tests pass");
+    }
+
+    private static GameRecord play(String[] moves, int xEngine, int oEngine){
+      Board b = new Board();
+      GameRecord r = new GameRecord(3, 3, xEngine, oEngine);
+      for (String move : moves){
+        b.makeMove(move);
+        r.addMove(move);
+      }
+      r.finish(b);
+      return r;
+    }
+
+    private void testEncode(){
+      GameRecord r = play(new String[]{"a1", "b2", "a2", "c3", "a3"}, MINIMAX, RANDOM);
+      assert( r.getWinner() == Type.X && r.isFinished() );
+      assert( r.encodedSize() == 15 );
+      ByteBuffer bytes = ByteBuffer.allocate(r.encodedSize());
+      r.encode(bytes);
+      byte[] expected = {3, 3, 0x13, 1, 0, 5, 0, 0, 0, 0, 0, 4, 1, 8, 2};
+      bytes.putInt(6, 0);
+      assert( Arrays.equals(bytes.array(), expected) );
+      assert( r.replay().getBoard().equals("xxxeoeeeo") );
+    }
+
+    private void testRoundTrip(Path dir) throws IOException {
+      Path path = dir.resolve("games.oxg");
+      GameRecord draw = play(new String[]{"a1", "b2", "c3", "a3", "c1", "b1", "b3", "c2", "a2"},
+                             HUMAN, MINIMAX);
+      GameRecord open = play(new String[]{"b2"}, HUMAN, HUMAN);
+      try (Writer w = new Writer(path)){
+        assert( w.add(draw) && w.add(open) );
+      }
+      assert( Files.size(path) == HEADER + draw.encodedSize() + open.encodedSize() );
+      try (Reader r = new Reader(path)){
+        assert( r.next() );
+        assert( r.getSize() == 3 && r.getWinLength() == 3 && r.getMoveCount() == 9 );
+        assert( r.getXEngine() == HUMAN && r.getOEngine() == MINIMAX );
+        assert( r.isFinished() && r.getWinner() == Type.Empty );
+        assert( r.getMove(0) == 0 && r.getMove(8) == 1 );
+        assert( r.get().replay().isTie() );
+        assert( r.next() );
+        assert( !r.isFinished() && r.getMoveCount() == 1 && r.getMove(0) == 4 );
+        assert( !r.next() );
+      }
+    }
+
+    private void testAppend(Path dir) throws IOException {
+      //a second writer carries on at the end of the file
+      Path path = dir.resolve("append.oxg");
+      GameRecord win = play(new String[]{"a1", "b2", "a2", "c3", "a3"}, MINIMAX, RANDOM);
+      for (int n = 0; n < 3; n++){
+        try (Writer w = new Writer(path)){
+          w.add(win);
+        }
+      }
+      int games = 0;
+      try (Reader r = new Reader(path)){
+        while (r.next()){
+          assert( r.getWinner() == Type.X );
+          games++;
+        }
+      }
+      assert( games == 3 );
+    }
+
+    private void testBigBoard(Path dir) throws IOException {
+      //squares past 255 take two bytes
+      Path path = dir.resolve("big.oxg");
+      GameRecord r = new GameRecord(20, 5, MONTE_CARLO, MINIMAX);
+      r.addMove("t20");
+      r.addMove("a1");
+      r.finish(r.replay());
+      assert( r.encodedSize() == FIXED + 4 );
+      try (Writer w = new Writer(path)){
+        w.add(r);
+      }
+      try (Reader in = new Reader(path)){
+        assert( in.next() );
+        assert( in.getSize() == 20 && in.getWinLength() == 5 );
+        assert( in.getMove(0) == 399 && in.getMove(1) == 0 );
+        assert( in.get().replay().getCell(399) == Type.X );
+      }
+    }
+
+    private void testTruncated(Path dir) throws IOException {
+      //a record cut off part way through is not read
+      Path path = dir.resolve("cut.oxg");
+      GameRecord win = play(new String[]{"a1", "b2", "a2", "c3", "a3"}, MINIMAX, RANDOM);
+      try (Writer w = new Writer(path)){
+        w.add(win);
+        w.add(win);
+      }
+      byte[] bytes = Files.readAllBytes(path);
+      Files.write(path, Arrays.copyOf(bytes, bytes.length - 2));
+      try (Reader r = new Reader(path)){
+        assert( r.next() && !r.next() );
+      }
+    }
+
+    private void testNotRecords(Path dir) throws IOException {
+      Path path = dir.resolve("other.txt");
+      Files.write(path, "not games at all".getBytes());
+      try {
+        new Writer(path).close();
+        assert( false );
+      } catch (IOException e){
+        assert( e.getMessage().contains("not a game record file") );
+      }
+      try {
+        new Reader(path).close();
+        assert( false );
+      } catch (IOException e){
+        assert( e.getMessage().contains("not a game record file") );
+      }
+    }
+
+    private void testMany(Path dir) throws IOException {
+      //games from an Arena, streamed out while they are played
+      Path path = dir.resolve("many.oxg");
+      java.util.concurrent.atomic.AtomicLong seeds = new java.util.concurrent.atomic.AtomicLong();
+      Arena arena = new Arena(() -> new RandomPlayer(seeds.incrementAndGet()),
+                              () -> new RandomPlayer(seeds.incrementAndGet()));
+      Arena.Report report;
+      try (Writer w = new Writer(path)){
+        arena.setRecorder(w);
+        report = arena.play(20000, 4);
+        assert( w.getDropped() == 0 );
+      }
+      long games = 0;
+      long xWins = 0;
+      try (Reader r = new Reader(path)){
+        while (r.next()){
+          games++;
+          if (r.getWinner() == Type.X){
+            xWins++;
+          }
+          assert( r.getXEngine() == RANDOM && r.isFinished() );
+        }
+      }
+      assert( games == 20000 && games == report.games() );
+      //the first player won as X in even games and lost as X in odd ones
+      assert( xWins > 0 && xWins < games );
+      assert( Files.size(path) < HEADER + 20000L * (FIXED + 9) );
+    }
+}
@@ -0,0 +1,465 @@
+/* Hosts games against the computer over TCP, one game per connection, so
+   many people can play at once. Each connection has its own Board and
+   runs on its own thread; the engine that picks the computer's moves is
+   shared by all of them, so it must be safe to call from many threads,
+   with games of any size at once (Minimax and LookupTable both are).
+
+   Sessions run on virtual threads when the JVM has them (Java 21 on), so
+   tens of thousands of idle connections cost little. On older JVMs they
+   fall back to platform threads with small stacks.
+
+   The protocol is one command per line, each answered by one line:
+
+     new [x|o] [size [winLength]]  start a game, playing as x (the default)
+                                   or o, on a 3x3 board unless given
+     move b2                       play a square
+     board                         show the game
+     quit                          end the session
+
+   A game is shown as "reply <move> <state> <board>": the computer's move
+   ("-" if it did not move), the state ("play" while the game goes on, then
+   "x", "o" or "draw") and the board in the "xoxooxeee" form. Anything that
+   cannot be done gets "error <reason>" and changes nothing, including a
+   command the engine fails on, which gets "error internal" and leaves the
+   connection open */
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class GameServer implements AutoCloseable {
+    private static final long STACK = 256 * 1024;
+    private MoveProvider engine;
+    private ServerSocket server;
+    private ExecutorService sessions;
+    private Thread acceptor;
+    private Set<Socket> open = ConcurrentHashMap.newKeySet();
+    private AtomicInteger active = new AtomicInteger();
+
+    GameServer(MoveProvider engine){
+      this.engine = engine;
+    }
+
+    static MoveProvider defaultEngine(){
+      //the solved game answers every 3x3 move at once, and the opening
+      //book varies the first moves; bigger boards are searched a few
+      //moves deep so no reply takes long. All sessions share the one
+      //transposition table, which keeps each size and win length apart
+      Minimax minimax = new Minimax();
+      minimax.setLookupTable(LookupTable.solve());
+      minimax.setOpeningBook(OpeningBook.standard());
+      minimax.setDepthLimit(4);
+      return minimax;
+    }
+
+    void start(int port) throws IOException {
+      //listens on the loopback address, port 0 picks a free port
+      server = new ServerSocket(port, 1024, InetAddress.getLoopbackAddress());
+      sessions = sessionExecutor();
+      acceptor = new Thread(this::acceptAll, "oxo-acceptor");
+      acceptor.start();
+    }
+
+    int getPort(){
+      return server.getLocalPort();
+    }
+
+    int getSessionCount(){
+      return active.get();
+    }
+
+    @Override
+    public void close(){
+      try {
+        server.close();
+      } catch (IOException e){
+        //closing anyway
+      }
+      for (Socket s : open){
+        closeQuietly(s);
+      }
+      sessions.shutdownNow();
+    }
+
+    //one connection's game
+    private class Session {
+        private Board board = null;
+        private Type human = Type.X;
+
+        String handle(String line){
+          //the reply to one command, null to end the session. A command
+          //that ends in an error, the engine's included, leaves the game
+          //as it was before
+          Board before = board == null ? null : board.cloneBoard();
+          Type side = human;
+          try {
+            String reply = command(line);
+            if (reply != null && reply.startsWith("error")){
+              board = before;
+              human = side;
+            }
+            return reply;
+          } catch (RuntimeException e){
+            board = before;
+            human = side;
+            return "error internal";
+          }
+        }
+
+        private String command(String line){
+          String[] words = line.trim().toLowerCase().split("\\s+");
+          switch (words[0]){
+            case "new":   return newGame(words);
+            case "move":  return move(words);
+            case "board": return board == null ? "error no game" : reply("-");
+            case "quit":  return null;
+            default:      return "error unknown command " + words[0];
+          }
+        }
+
+        private String newGame(String[] words){
+          if (words.length > 4){
+            return "error use new [x|o] [size [winLength]]";
+          }
+          Type side = Type.X;
+          if (words.length > 1){
+            if (!words[1].equals("x") && !words[1].equals("o")){
+              return "error play as x or o";
+            }
+            side = words[1].equals("x") ? Type.X : Type.O;
+          }
+          try {
+            int size = words.length > 2 ? Integer.parseInt(words[2]) : 3;
+            int winLength = words.length > 3 ? Integer.parseInt(words[3]) : Math.min(size, 3);
+            board = new Board(size, winLength);
+          } catch (IllegalArgumentException e){
+            return "error " + e.getMessage();
+          }
+          human = side;
+          if (human == Type.O){
+            return computerReply();
+          }
+          return reply("-");
+        }
+
+        private String move(String[] words){
+          if (board == null){
+            return "error no game";
+          }
+          if (board.isGameOver()){
+            return "error the game is over";
+          }
+          if (words.length != 2 || !board.makeMove(words[1])){
+            return "error illegal move";
+          }
+          if (board.isGameOver()){
+            return reply("-");
+          }
+          return computerReply();
+        }
+
+        private String computerReply(){
+          //the computer's move played and shown, or an error if the engine
+          //gave none or one that cannot be played
+          Type computer = board.getCurrentPlayerType();
+          String move = engine.chooseMove(board, computer);
+          if (!board.makeMove(move)){
+            return "error the computer gave an illegal move";
+          }
+          return reply(move);
+        }
+
+        private String reply(String move){
+          String state = "play";
+          if (board.isTie()){
+            state = "draw";
+          } else if (board.isGameOver()){
+            state = board.getWinnerType() == Type.X ? "x" : "o";
+          }
+          return "reply " + move + " " + state + " " + board.getBoard();
+        }
+    }
+
+    //---------Private methods ------------
+
+    private void acceptAll(){
+      while (!server.isClosed()){
+        try {
+          Socket socket = server.accept();
+          open.add(socket);
+          active.incrementAndGet();
+          sessions.execute(() -> serve(socket));
+        } catch (IOException | RejectedExecutionException e){
+          //closed
+        }
+      }
+    }
+
+    private void serve(Socket socket){
+      Session session = new Session();
+      try (BufferedReader in = new BufferedReader(new InputStreamReader(
+             socket.getInputStream(), StandardCharsets.UTF_8));
+           PrintWriter out = new PrintWriter(new OutputStreamWriter(
+             socket.getOutputStream(), StandardCharsets.UTF_8), true)){
+        String line;
+        while ((line = in.readLine()) != null){
+          if (line.trim().isEmpty()){
+            continue;
+          }
+          String reply = session.handle(line);
+          if (reply == null){
+            out.println("bye");
+            break;
+          }
+          out.println(reply);
+        }
+      } catch (IOException e){
+        //the client went away
+      } finally {
+        open.remove(socket);
+        active.decrementAndGet();
+        closeQuietly(socket);
+      }
+    }
+
+    private static ExecutorService sessionExecutor(){
+      //a virtual thread per session where there are virtual threads
+      try {
+        return (ExecutorService) Executors.class
+                 .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e){
+        return Executors.newCachedThreadPool(r -> {
+          Thread t = new Thread(null, r, "oxo-session", STACK);
+          t.setDaemon(true);
+          return t;
+        });
+      }
+    }
+
+    private static void closeQuietly(Socket s){
+      try {
+        s.close();
+      } catch (IOException e){
+        //nothing more to do
+      }
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        try (GameServer program = new GameServer(defaultEngine())){
+          program.run();
+        }
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea GameServer");
+
+        try {
+          start(0);
+          testProtocol();
+          testComputerStarts();
+          testBigBoard();
+          testManyGames();
+          testMixedSizes();
+          testEngineFails();
+          testIllegalEngineMove();
+          testClose();
+        } catch (Exception e){
+          throw new Error(e);
+        }
+
+        System.out.println("All tests pass");
+    }
+
+    //a connection from the test side
+    private class Client implements Closeable {
+        Socket socket;
+        BufferedReader in;
+        PrintWriter out;
+
+        Client() throws IOException {
+          socket = new Socket(InetAddress.getLoopbackAddress(), getPort());
+          in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                                                        StandardCharsets.UTF_8));
+          out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(),
+                                                       StandardCharsets.UTF_8), true);
+        }
+
+        String send(String line) throws IOException {
+          out.println(line);
+          return in.readLine();
+        }
+
+        public void close() throws IOException {
+          socket.close();
+        }
+    }
+
+    private void testProtocol() throws IOException {
+      try (Client c = new Client()){
+        assert( c.send("board").equals("error no game") );
+        assert( c.send("move b2").equals("error no game") );
+        assert( c.send("dance").startsWith("error unknown command") );
+        assert( c.send("new z").startsWith("error") );
+        assert( c.send("new x 3 4").startsWith("error Cannot play 4 in a row") );
+        assert( c.send("new").equals("reply - play eeeeeeeee") );
+        String[] reply = c.send("move a1").split(" ");
+        //the only reply to a corner that does not lose is the centre
+        assert( reply[1].equals("b2") && reply[2].equals("play") );
+        assert( reply[3].equals("xeeeoeeee") );
+        assert( c.send("move a1").equals("error illegal move") );
+        assert( c.send("move z9").equals("error illegal move") );
+        assert( c.send("board").equals("reply - play xeeeoeeee") );
+        assert( c.send("quit").equals("bye") );
+        assert( c.in.readLine() == null );
+      }
+    }
+
+    private void testComputerStarts() throws IOException {
+      try (Client c = new Client()){
+        String[] reply = c.send("new o").split(" ");
+        assert( !reply[1].equals("-") && reply[2].equals("play") );
+        assert( reply[3].chars().filter(ch -> ch == 'x').count() == 1 );
+      }
+    }
+
+    private void testBigBoard() throws IOException {
+      try (Client c = new Client()){
+        assert( c.send("new x 4 3").equals("reply - play eeeeeeeeeeeeeeee") );
+        String[] reply = c.send("move b2").split(" ");
+        assert( reply[2].equals("play") && reply[3].length() == 16 );
+      }
+    }
+
+    private void testManyGames() throws Exception {
+      //clients play random moves at the same time; the computer never loses
+      int clients = 200;
+      ExecutorService players = Executors.newFixedThreadPool(clients);
+      CountDownLatch connected = new CountDownLatch(clients);
+      Future<?>[] games = new Future<?>[clients];
+      for (int n = 0; n < clients; n++){
+        int id = n;
+        games[n] = players.submit(() -> {
+          try (Client c = new Client()){
+            Type side = id % 2 == 0 ? Type.X : Type.O;
+            String[] reply = c.send("new " + (side == Type.X ? "x" : "o")).split(" ");
+            connected.countDown();
+            connected.await();
+            RandomPlayer random = new RandomPlayer(id);
+            while (reply[2].equals("play")){
+              Board b = new Board();
+              b.setBoard(reply[3]);
+              reply = c.send("move " + random.chooseMove(b, side)).split(" ");
+              assert( reply[0].equals("reply") );
+            }
+            assert( !reply[2].equals(side == Type.X ? "x" : "o") );
+          }
+          return null;
+        });
+      }
+      for (Future<?> game : games){
+        game.get();
+      }
+      players.shutdown();
+    }
+
+    private void testMixedSizes() throws Exception {
+      //games of different sizes and win lengths at the same time, on the
+      //one engine, each get legal replies on their own board
+      String[] games = {"x 4 3", "o 5 4", "x 4 4", "o 5 3"};
+      int clients = 40;
+      ExecutorService players = Executors.newFixedThreadPool(clients);
+      CountDownLatch connected = new CountDownLatch(clients);
+      Future<?>[] played = new Future<?>[clients];
+      for (int n = 0; n < clients; n++){
+        int id = n;
+        played[n] = players.submit(() -> {
+          try (Client c = new Client()){
+            String[] game = games[id % games.length].split(" ");
+            Type side = game[0].equals("x") ? Type.X : Type.O;
+            int size = Integer.parseInt(game[1]);
+            int winLength = Integer.parseInt(game[2]);
+            String[] reply = c.send("new " + games[id % games.length]).split(" ");
+            connected.countDown();
+            connected.await();
+            RandomPlayer random = new RandomPlayer(id);
+            while (reply[0].equals("reply") && reply[2].equals("play")){
+              Board b = new Board(size, winLength);
+              b.setBoard(reply[3]);
+              String move = random.chooseMove(b, side);
+              b.makeMove(move.charAt(0) - 'a', Integer.parseInt(move.substring(1)) - 1, side);
+              reply = c.send("move " + move).split(" ");
+              assert( reply[0].equals("reply") );
+              if (!reply[1].equals("-")){
+                //the computer's move was to an empty square of this board
+                int k = (reply[1].charAt(0) - 'a') * size + Integer.parseInt(reply[1].substring(1)) - 1;
+                char computer = side == Type.X ? 'o' : 'x';
+                String before = b.getBoard();
+                assert( before.charAt(k) == 'e' );
+                assert( reply[3].equals(before.substring(0, k) + computer + before.substring(k + 1)) );
+              }
+            }
+            assert( reply[0].equals("reply") && reply[3].length() == size * size );
+          }
+          return null;
+        });
+      }
+      for (Future<?> game : played){
+        game.get();
+      }
+      players.shutdown();
+    }
+
+    private void testEngineFails() throws IOException {
+      //an engine that throws gets an error back and the game as it was
+      try (GameServer broken = new GameServer((b, p) -> {
+             throw new IllegalStateException("broken");
+           })){
+        broken.start(0);
+        try (Client c = broken.new Client()){
+          assert( c.send("new o").equals("error internal") );
+          assert( c.send("board").equals("error no game") );
+          assert( c.send("new").equals("reply - play eeeeeeeee") );
+          assert( c.send("move a1").equals("error internal") );
+          assert( c.send("board").equals("reply - play eeeeeeeee") );
+          assert( c.send("quit").equals("bye") );
+        }
+      }
+    }
+
+    private void testIllegalEngineMove() throws IOException {
+      //a move the engine gives that cannot be played is an error, and
+      //the game stays as it was
+      try (GameServer wrong = new GameServer((b, p) -> b.isEmpty() ? "b2" : "a1")){
+        wrong.start(0);
+        try (Client c = wrong.new Client()){
+          assert( c.send("new o").equals("reply b2 play eeeexeeee") );
+          assert( c.send("move a1").equals("error the computer gave an illegal move") );
+          assert( c.send("board").equals("reply - play eeeexeeee") );
+          assert( c.send("new").equals("reply - play eeeeeeeee") );
+        }
+      }
+      try (GameServer none = new GameServer((b, p) -> "")){
+        none.start(0);
+        try (Client c = none.new Client()){
+          assert( c.send("new o").equals("error the computer gave an illegal move") );
+          assert( c.send("board").equals("error no game") );
+        }
+      }
+    }
+
+    private void testClose() throws IOException {
+      Client c = new Client();
+      assert( c.send("new").startsWith("reply") );
+      close();
+      assert( c.in.readLine() == null );
+      c.close();
+    }
+}
@@ -0,0 +1,116 @@
+/* The winning lines of a board: every run of winLength squares along a
+   row, a column or a diagonal. Line n covers the squares cells(n), and
+   through(k) lists the lines that pass through square k, so a Board can
+   keep a count of each player's pieces on every line and update only the
+   lines through a square when a piece goes on or comes off it.
+
+   Squares are numbered row * size + col, as in Board */
+
+class Lines {
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+    private static Lines[][] bySize = new Lines[Board.MAXSIZE + 1][Board.MAXSIZE + 1];
+    private int[][] cells;
+    private int[][] through;
+
+    Lines(int size, int winLength){
+      //one direction is enough when a single square wins
+      int directions = winLength == 1 ? 1 : DIRECTIONS.length;
+      int[][] found = new int[directions * size * size][];
+      int[] perCell = new int[size * size];
+      int count = 0;
+      for (int d = 0; d < directions; d++){
+        int dr = DIRECTIONS[d][0], dc = DIRECTIONS[d][1];
+        for (int row = 0; row < size; row++){
+          for (int col = 0; col < size; col++){
+            int endRow = row + dr * (winLength - 1);
+            int endCol = col + dc * (winLength - 1);
+            if (endRow >= size || endCol < 0 || endCol >= size){
+              continue;
+            }
+            int[] line = new int[winLength];
+            for (int n = 0; n < winLength; n++){
+              line[n] = (row + dr * n) * size + col + dc * n;
+              perCell[line[n]]++;
+            }
+            found[count++] = line;
+          }
+        }
+      }
+      cells = java.util.Arrays.copyOf(found, count);
+      through = new int[size * size][];
+      for (int k = 0; k < through.length; k++){
+        through[k] = new int[perCell[k]];
+        perCell[k] = 0;
+      }
+      for (int n = 0; n < count; n++){
+        for (int k : cells[n]){
+          through[k][perCell[k]++] = n;
+        }
+      }
+    }
+
+    static synchronized Lines of(int size, int winLength){
+      //one shared, read only instance per board size and win length
+      if (bySize[size][winLength] == null){
+        bySize[size][winLength] = new Lines(size, winLength);
+      }
+      return bySize[size][winLength];
+    }
+
+    int count(){
+      return cells.length;
+    }
+
+    int[] cells(int line){
+      return cells[line];
+    }
+
+    int[] through(int cell){
+      return through[cell];
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        Lines program = new Lines(3, 3);
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea Lines");
+
+        testThreeByThree();
+        testBigBoards();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testThreeByThree(){
+      //3 rows, 3 columns and 2 diagonals
+      assert( count() == 8 );
+      assert( through(4).length == 4 );
+      assert( through(0).length == 3 );
+      assert( through(1).length == 2 );
+      for (int n = 0; n < count(); n++){
+        for (int k : cells(n)){
+          boolean listed = false;
+          for (int line : through(k)){
+            listed |= line == n;
+          }
+          assert( listed );
+        }
+      }
+    }
+
+    private void testBigBoards(){
+      //each direction fits size - winLength + 1 lines per row or column
+      assert( of(4, 3).count() == 2 * 4 * 2 + 2 * 2 * 2 );
+      assert( of(26, 5).count() == 2 * 26 * 22 + 2 * 22 * 22 );
+      assert( of(5, 1).count() == 25 );
+      assert( of(26, 26).count() == 2 * 26 + 2 );
+      assert( of(7, 4) == of(7, 4) );
+    }
+}
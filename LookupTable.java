@@ -0,0 +1,259 @@
+/* The whole game solved in advance. Every position that can come up in a
+   game, whichever player starts, is visited once and its best move and
+   value are stored, so a move can be looked up instead of searched for.
+
+   Positions are indexed by their base 3 number (each square is 0 empty,
+   1 X or 2 O, square 0 the lowest digit), doubled for the player to move.
+   Values use the same scale as Minimax counted from the position itself:
+   10 is a win for X on the next move, 9 the move after and so on, negative
+   for O, 0 for a draw. The best move is the first optimal move in the
+   order Minimax tries moves at the root, so both give the same answer */
+
+class LookupTable implements MoveProvider {
+    private static final int SIZE = 3;
+    private static final int CELLS = SIZE * SIZE;
+    private static final int POSITIONS = 19683; //3^9
+    static final int ENTRIES = 2 * POSITIONS;
+    private static final byte UNKNOWN = Byte.MIN_VALUE;
+    private static final int[] BASE3 = base3Table();
+    private byte[] values = new byte[ENTRIES];
+    private byte[] moves = new byte[ENTRIES];
+    private int count = 0;
+    private MoveOrdering ordering = MoveOrdering.standard();
+
+    LookupTable(){
+      java.util.Arrays.fill(values, UNKNOWN);
+      java.util.Arrays.fill(moves, (byte) -1);
+    }
+
+    LookupTable(byte[] values, byte[] moves){
+      //a table that was solved before, as read back by SolutionFile
+      this.values = values;
+      this.moves = moves;
+      for (byte value : values){
+        if (value != UNKNOWN){
+          count++;
+        }
+      }
+    }
+
+    static LookupTable solve(){
+      //visits every position reachable from the empty board with either
+      //player starting
+      LookupTable table = new LookupTable();
+      Board board = new Board();
+      int[][] order = new int[CELLS + 1][CELLS];
+      table.solve(board, Type.X, order, 0);
+      table.solve(board, Type.O, order, 0);
+      return table;
+    }
+
+    boolean covers(Board board){
+      //only the standard 3x3, 3 in a row game is solved
+      return board.getSize() == SIZE && board.getWinLength() == SIZE;
+    }
+
+    boolean contains(Board board, Type toMove){
+      return covers(board) && values[index(board, toMove)] != UNKNOWN;
+    }
+
+    int getMove(Board board, Type toMove){
+      //best square row * SIZE + col, -1 if unknown or the game is over
+      if (!covers(board)){
+        return -1;
+      }
+      return moves[index(board, toMove)];
+    }
+
+    @Override
+    public String chooseMove(Board board, Type player){
+      //"" for boards the table does not cover
+      int k = getMove(board, player);
+      if (k < 0){
+        return "";
+      }
+      return "" + (char)('a' + k / SIZE) + (char)('1' + k % SIZE);
+    }
+
+    int getValue(Board board, Type toMove){
+      return values[index(board, toMove)];
+    }
+
+    int getDistance(Board board, Type toMove){
+      //number of moves to the end of the game with best play
+      int value = getValue(board, toMove);
+      if (value == 0){
+        return board.countEmpty();
+      }
+      return 10 - Math.abs(value);
+    }
+
+    int positions(){
+      return count;
+    }
+
+    int entries(){
+      return ENTRIES;
+    }
+
+    byte valueAt(int index){
+      return values[index];
+    }
+
+    byte moveAt(int index){
+      return moves[index];
+    }
+
+    static int index(Board board, Type toMove){
+      int rank = BASE3[board.getMask(Type.X)] + 2 * BASE3[board.getMask(Type.O)];
+      if (toMove == Type.O){
+        return POSITIONS + rank;
+      }
+      return rank;
+    }
+
+    //---------Private methods ------------
+
+    private int solve(Board board, Type toMove, int[][] order, int ply){
+      int index = index(board, toMove);
+      if (values[index] != UNKNOWN){
+        return values[index];
+      }
+      int best;
+      int bestMove = -1;
+      if (board.isGameOver()){
+        best = 0;
+        if (board.getWinnerType() == Type.X){ best = 10; }
+        if (board.getWinnerType() == Type.O){ best = -10; }
+      } else {
+        Type next = toMove == Type.X ? Type.O : Type.X;
+        int[] candidates = order[ply];
+        int n = ordering.orderMoves(board, -1, toMove, -1, candidates);
+        best = toMove == Type.X ? -100 : 100;
+        for (int m = 0; m < n; m++){
+          int k = candidates[m];
+          board.makeMove(k / SIZE, k % SIZE, toMove);
+          int value = towardsRoot(solve(board, next, order, ply + 1));
+          board.undoMove(k / SIZE, k % SIZE);
+          if (toMove == Type.X ? value > best : value < best){
+            best = value;
+            bestMove = k;
+          }
+        }
+      }
+      values[index] = (byte) best;
+      moves[index] = (byte) bestMove;
+      count++;
+      return best;
+    }
+
+    private static int towardsRoot(int value){
+      //a win one move further away is worth one point less
+      if (value > 0){ return value - 1; }
+      if (value < 0){ return value + 1; }
+      return 0;
+    }
+
+    private static int[] base3Table(){
+      //base 3 number with digit 1 on every set bit of a 9 bit mask
+      int[] table = new int[1 << CELLS];
+      for (int mask = 0; mask < table.length; mask++){
+        int power = 1;
+        for (int k = 0; k < CELLS; k++){
+          if ((mask & (1 << k)) != 0){
+            table[mask] += power;
+          }
+          power *= 3;
+        }
+      }
+      return table;
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        LookupTable program = LookupTable.solve();
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea LookupTable");
+
+        testIndex();
+        testPositions();
+        testValues();
+        testAgreesWithMinimax();
+        testChooseMove();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testIndex(){
+      Board b = new Board();
+      assert( index(b, Type.X) == 0 );
+      assert( index(b, Type.O) == POSITIONS );
+      b.setBoard("xeeeeeeee");
+      assert( index(b, Type.X) == 1 );
+      b.setBoard("eoeeeeeee");
+      assert( index(b, Type.X) == 6 );
+      b.setBoard("oooooooox");
+      assert( index(b, Type.X) == POSITIONS - 1 - 6561 );
+    }
+
+    private void testPositions(){
+      //5478 legal positions for each starting player
+      assert( positions() == 2 * 5478 );
+      Board b = new Board();
+      b.setBoard("xxeeeeeee");
+      assert( !contains(b, Type.O) );
+      assert( !contains(b, Type.X) );
+      Board big = new Board(4, 3);
+      assert( !contains(big, Type.X) );
+      assert( getMove(big, Type.X) == -1 );
+    }
+
+    private void testValues(){
+      Board b = new Board();
+      //perfect play is a draw
+      assert( getValue(b, Type.X) == 0 );
+      assert( getValue(b, Type.O) == 0 );
+      assert( getDistance(b, Type.X) == 9 );
+      //X wins at once
+      b.setBoard("xoxooxeee");
+      assert( getValue(b, Type.X) == 9 );
+      assert( getMove(b, Type.X) == 8 );
+      assert( getDistance(b, Type.X) == 1 );
+      //game over positions have no move
+      b.setBoard("xxxooeeee");
+      assert( getValue(b, Type.O) == 10 );
+      assert( getMove(b, Type.O) == -1 );
+      assert( getDistance(b, Type.O) == 0 );
+    }
+
+    private void testChooseMove(){
+      Board b = new Board();
+      b.setBoard("xoxooxeee");
+      assert( chooseMove(b, Type.X).equals("c3") );
+      assert( chooseMove(b, Type.O).equals("c2") );
+      assert( chooseMove(new Board(4, 3), Type.X).equals("") );
+    }
+
+    private void testAgreesWithMinimax(){
+      String[] positions = {"xoxooxeee", "xoxooxeee", "eoexexoee",
+                            "xeeeeeeee", "eeeexeeee", "xeeeoeeex"};
+      Type[] players = {Type.X, Type.O, Type.X, Type.O, Type.O, Type.O};
+      Minimax minimax = new Minimax();
+      minimax.setTranspositionTable(null);
+      Board b = new Board();
+      for (int n = 0; n < positions.length; n++){
+        b.setBoard(positions[n]);
+        minimax.setPlayingAs(players[n]);
+        int k = getMove(b, players[n]);
+        String move = "" + (char)('a' + k / SIZE) + (char)('1' + k % SIZE);
+        assert( minimax.getBestMove(b).equals(move) );
+      }
+    }
+}
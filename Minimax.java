@@ -1,62 +1,333 @@
-
 /* Takes in a Board class object and returns the best move for the computer
   player as a string (such as "a1" or "c3" etc) using the Minimax algorithm.
 
   Uses a varient that takes into account number of moves made before a win,
   to preference moves that lead to quick wins or slow losses
 
+  The search makes and undoes moves on a single scratch Board, so no
+  objects are allocated per node during getBestMove
+
+  The search is a negamax: every score is for the player to move, so one
+  branch serves both players and a reply's score is negated on the way
+  back up. Alpha-beta pruning cuts off branches that cannot change the
+  result, and the quickest possible win at each depth is used as a bound.
+  The order moves are tried in comes from a MoveOrdering
+
+  It is a principal variation search. The first move at a node is searched
+  with the full window, and the rest with a null window that only asks
+  whether they beat it, which is cheaper. A move that does is searched
+  again with the full window. When deepening against the clock, each depth
+  starts with an aspiration window around the score of the depth before,
+  widened and searched again if the score falls outside it. The line of
+  best play found is kept, see getPrincipalVariation()
+
+  Results are kept in a TranspositionTable keyed by the Board's Zobrist
+  hash. The table belongs to this Minimax and is kept between calls, so
+  positions seen in earlier turns or games are not searched again. Scores
+  are stored relative to the position, not the root, so they stay valid
+  whichever turn the position comes up on
+
+  Positions that are rotations or reflections of each other are treated as
+  one: the table is keyed on the canonical hash with moves stored in the
+  canonical orientation, and at each node only one move from each set of
+  symmetric moves is searched
+
+  A search limited by depth or by time scores the positions where it stops
+  with an Evaluator, a PatternEvaluator unless setEvaluator gives another
+
+  Given a LookupTable, positions it covers are answered straight from the
+  table without any search. Given an OpeningBook, so are the early
+  positions it holds, with one of the best moves picked at random. With
+  no book the first move of a game is a random one of the central squares
+
+  Given a ForkJoinPool, each move at the root is searched as a separate
+  task on its own copy of the board. The tasks share the transposition
+  table and the best score found so far, so a task can still cut off
+  moves that cannot beat another task's result. Ties go to the earliest
+  move in the root order, so the answer is the same as searching on one
+  thread
+
+  getBestMove(board, side) may be called from many threads at once on one
+  Minimax. Each call borrows a private copy of the search state, and all
+  of them share the transposition table. It is a fixed size lock-free
+  hash of long keys, where new results replace old ones, so it never
+  grows and never blocks. The other calls use this Minimax's own state
+  and are for one thread at a time
+
+  Pass a SearchStats to getBestMove to find out what a call cost, or give
+  a SearchMetrics to setMetrics to total up the cost of every call
+
+  Works for any Board size and line length. Moves are named by row letter
+  and column number, so "c12" on big boards. Scores count from the number
+  of squares on the board, so on 3x3 a win is worth 10 less the moves
+  it takes
   */
 
-class Minimax {
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class Minimax implements MoveProvider {
     private int SIZE = 3;
+    //the board size and win length part of the table key
+    private long variant = TranspositionTable.variant(3, 3);
     private Type computerPlayer = Type.X;
     private Type humanPlayer = Type.O;
-    private int WINPOINTS = 10;
-    private int LOSEPOINTS = -10;
-    private Type maximizer = Type.X;
-    private Type minimizer = Type.O;
+    private int WINPOINTS = HEURISTIC + 10;
+    private int LOSEPOINTS = -WINPOINTS;
+    private int INFINITY = 10000;
+    private Board searchBoard = new Board();
+    private MoveOrdering ordering = MoveOrdering.standard();
+    private boolean pruning = true;
+    private boolean symmetry = true;
+    private int[][] moveLists = new int[SIZE * SIZE + 1][SIZE * SIZE];
+    private long[][] triedLists = new long[SIZE * SIZE + 1][1];
+    //the principal variation below each node of the search, by depth
+    private int[][] pvLines = new int[SIZE * SIZE + 1][SIZE * SIZE];
+    private int[] pvLengths = new int[SIZE * SIZE + 1];
+    //the principal variation of the last search, see getPrincipalVariation()
+    private int[] line = new int[SIZE * SIZE];
+    private int lineLength = 0;
+    private long nodes = 0;
+    private long leaves = 0;
+    private long cutoffs = 0;
+    private long tableHits = 0;
+    private long tableMisses = 0;
+    private int maxPly = 0;
+    //cpu time used by the threads of a parallel search, when collecting
+    private long workerCpu = 0;
+    private boolean collecting = false;
+    private SearchMetrics metrics = null;
+    private SearchStats lastStats = new SearchStats();
+    //search state for getBestMove(board, side), one per concurrent call
+    private java.util.concurrent.ConcurrentLinkedDeque<Minimax> idle =
+      new java.util.concurrent.ConcurrentLinkedDeque<>();
+    private TranspositionTable table;
+    private LookupTable lookup = null;
+    private Tablebase tablebase = null;
+    private OpeningBook book = null;
+    private Evaluator evaluator = new PatternEvaluator();
+    private ForkJoinPool pool = null;
+    //the best root score so far, when this is searching one root move
+    private AtomicInteger rootBest = null;
+    //positions this many moves from the root are scored by the evaluator
+    private int limit = Integer.MAX_VALUE;
+    private int depthLimit = Integer.MAX_VALUE;
+    //System.nanoTime() to stop the search at, 0 for none
+    private long deadline = 0;
+    private boolean aborted = false;
+    private int rootValue = 0;
+    private int searchDepth = 0;
+    private long elapsed = 0;
+    //the outcome found by the last search, see getValue()
+    private int value = 0;
+    private int distance = -1;
+    //scores of unfinished games stay below this, wins are worth more
+    private static final int HEURISTIC = 1000;
+    //half the width of the first aspiration window
+    private static final int ASPIRATION = 16;
+
+    Minimax(){
+      this(new TranspositionTable(1 << 16));
+    }
+
+    private Minimax(TranspositionTable table){
+      this.table = table;
+    }
 
     String getBestMove(Board board){
+      //searches to the end of the game however long that takes
+        return getBestMove(board, 0);
+    }
+
+    String getBestMove(Board board, long timeBudget){
+        return getBestMove(board, timeBudget, null);
+    }
+
+    String getBestMove(Board board, long timeBudget, SearchStats stats){
+      //as getBestMove(board, timeBudget), filling in stats if it is not null
+        if (stats == null && metrics != null){
+          stats = lastStats;
+        }
+        if (stats == null){
+          return search(board, timeBudget);
+        }
+        long wall = System.nanoTime();
+        long cpu = SearchStats.cpuTime();
+        workerCpu = 0;
+        collecting = true;
+        String move = search(board, timeBudget);
+        collecting = false;
+        stats.nodes = nodes;
+        stats.leaves = leaves;
+        stats.maxDepth = maxPly;
+        stats.cutoffs = cutoffs;
+        stats.tableHits = tableHits;
+        stats.tableMisses = tableMisses;
+        stats.wallTime = System.nanoTime() - wall;
+        stats.cpuTime = SearchStats.cpuTime() - cpu + workerCpu;
+        if (metrics != null){
+          metrics.record(stats);
+        }
+        return move;
+    }
+
+    private String search(Board board, long timeBudget){
       //works through each possible move and gives it a score based on whether
-      //the human player or the CP player won, or a tie
-        String bestMoveString = "";
-        int bestMove_i = -1;
-        int bestMove_j = -1;
-        int bestMoveValue = -1;
-        int currentMove = -10000;
-        boolean isMaximizingPlayer = computerPlayer.equals(maximizer);
-        Board clone = board.cloneBoard();
-
-        //if first move, pick random start
+      //the human player or the CP player won, or a tie. With a timeBudget in
+      //milliseconds the search deepens one move at a time and gives the
+      //best move of the last depth it finished; 0 means no limit
+        long start = System.nanoTime();
+        int bestMove = -1;
+        nodes = 0;
+        leaves = 0;
+        cutoffs = 0;
+        tableHits = 0;
+        tableMisses = 0;
+        maxPly = 0;
+        searchDepth = 0;
+        value = 0;
+        distance = -1;
+        elapsed = 0;
+        prepare(board);
+
+        //the opening book picks one of the best early moves at random
+        int booked = book == null ? -1 : book.getMove(board, computerPlayer);
+        if (booked >= 0){
+          line[0] = booked;
+          lineLength = 1;
+          return numToString(line[0]);
+        }
+
+        //without a book, the first move is one of the central squares
         if (board.isEmpty()){
-          return numToString( (int)(Math.random()*(8)) );
-        }
-
-        //get each empty square
-        for (int i = 0; i < SIZE; i ++){
-          for(int j = 0; j < SIZE; j++){
-            if (clone.getValue(i, j).equals(Type.Empty)){
-              clone.makeMove(i, j, computerPlayer);
-              currentMove = miniMax(clone, 0, !isMaximizingPlayer);
-              //undo the move
-              clone.makeMove(i, j, Type.Empty);
-
-              if(getPlayingAs().equals(maximizer)){
-                 if (currentMove > bestMoveValue) {
-                  bestMoveValue = currentMove;
-                  bestMove_i = i; bestMove_j = j;
-                 }
-              } else {
-                if (currentMove < bestMoveValue) {
-                 bestMoveValue = currentMove;
-                 bestMove_i = i; bestMove_j = j;
-                }
-              }
+          line[0] = openingMove(board);
+          lineLength = 1;
+          return numToString(line[0]);
+        }
+
+        //a solved game answers with a single array lookup
+        int known = lookup == null ? -1 : lookup.getMove(board, computerPlayer);
+        if (known >= 0){
+          int solved = lookup.getValue(board, computerPlayer);
+          if (solved != 0){
+            value = (solved > 0) == (computerPlayer == Type.X) ? 1 : -1;
+          }
+          distance = lookup.getDistance(board, computerPlayer);
+          completeLine(board, known, distance);
+          return numToString(line[0]);
+        }
+        known = tablebase == null ? -1 : tablebase.getMove(board, computerPlayer);
+        if (known >= 0){
+          value = tablebase.getValue(board, computerPlayer);
+          distance = tablebase.getDistance(board, computerPlayer);
+          completeLine(board, known, distance);
+          return numToString(line[0]);
+        }
+
+        Board clone = searchBoard;
+        clone.copyFrom(board);
+        ordering.clear();
+        int empty = clone.countEmpty();
+
+        //a position already solved exactly needs no search
+        long key = tableKey(clone, computerPlayer);
+        int transform = clone.getCanonicalTransform();
+        Symmetry sym = clone.getSymmetry();
+        if (table != null){
+          long entry = table.probe(key);
+          if (entry != 0){ tableHits++; } else { tableMisses++; }
+          int move = storedMove(entry, clone, sym, transform);
+          if (entry != 0 && TranspositionTable.flag(entry) == TranspositionTable.EXACT
+              && TranspositionTable.draft(entry) >= empty && move >= 0){
+            searchDepth = empty;
+            setResult(fromTable(TranspositionTable.score(entry), -1), empty);
+            completeLine(board, move, distance);
+            return numToString(move);
+          }
+        }
+
+        //get each empty square, best candidates first, leaving out moves
+        //symmetric to one earlier in the list
+        int[] moves = moveLists[0];
+        int count = ordering.orderMoves(clone, -1, computerPlayer, -1, moves);
+        int symmetries = symmetry ? clone.getSymmetries() : 1;
+        long[] tried = clearTried(0, symmetries);
+        int distinct = 0;
+        for (int n = 0; n < count; n++){
+          if (!isSymmetricDuplicate(sym, symmetries, moves[n], tried)){
+            moves[distinct++] = moves[n];
+          }
+        }
+
+        if (timeBudget <= 0){
+          limit = depthLimit;
+          bestMove = searchRoot(clone, moves, distinct, -INFINITY, INFINITY);
+          keepLine();
+          searchDepth = min(empty, depthLimit);
+          limit = Integer.MAX_VALUE;
+        } else {
+          deadline = start + timeBudget * 1000000L;
+          bestMove = moves[0];
+          for (int depth = 1; depth <= min(empty, depthLimit); depth++){
+            limit = depth;
+            int move = searchWindow(clone, moves, distinct, depth);
+            if (aborted){
+              break;
             }
+            bestMove = move;
+            keepLine();
+            searchDepth = depth;
+            moveToFront(moves, distinct, move);
           }
+          limit = Integer.MAX_VALUE;
+          deadline = 0;
+          aborted = false;
+        }
+
+        if (searchDepth == empty){
+          setResult(rootValue, empty);
         }
-        bestMoveString = numToString(coordToNum(bestMove_i, bestMove_j));
-        return bestMoveString;
+        if (table != null && searchDepth == empty && bestMove >= 0){
+          table.store(key, toTable(rootValue, -1), empty,
+                      TranspositionTable.EXACT, sym.map(transform, bestMove));
+        }
+        completeLine(board, bestMove, searchDepth == empty ? distance : searchDepth);
+        elapsed = System.nanoTime() - start;
+        return numToString(bestMove);
+    }
+
+    String getBestMove(Board board, Type side){
+      //the best move for side, without changing this Minimax, so it is safe
+      //to call from many threads as long as each has its own Board
+      Minimax worker = idle.poll();
+      if (worker == null){
+        worker = new Minimax(table);
+        worker.ordering = ordering.copy();
+      }
+      copySettings(worker);
+      worker.pool = pool;
+      worker.metrics = metrics;
+      worker.setPlayingAs(side);
+      try {
+        return worker.getBestMove(board);
+      } finally {
+        idle.push(worker);
+      }
+    }
+
+    @Override
+    public String chooseMove(Board board, Type player){
+      return getBestMove(board, player);
+    }
+
+    Minimax copy(){
+      //a Minimax that plays as this one would, with the same tables, book,
+      //evaluator and limits, but its own search buffers, pool and metrics
+      Minimax other = new Minimax(table);
+      other.ordering = ordering.copy();
+      copySettings(other);
+      return other;
     }
 
     void setPlayingAs(Type p){
@@ -72,57 +343,666 @@ class Minimax {
       return computerPlayer;
     }
 
-    private int evaluate(Board board, int depth){
-      //determines point value of initial move based on game outcome
-      //depth is the number of moves made prior to game end state
-       if (isWinner(board, maximizer)){
+    void setMoveOrdering(MoveOrdering m){
+      ordering = m;
+    }
+
+    void setPruning(boolean on){
+      //with pruning off the full tree is searched, for comparing node counts
+      pruning = on;
+    }
+
+    void setSymmetryReduction(boolean on){
+      //with this off every move is searched, even symmetric ones
+      symmetry = on;
+    }
+
+    void setLookupTable(LookupTable t){
+      //pass null to always search
+      lookup = t;
+    }
+
+    void setTablebase(Tablebase t){
+      //positions t knows are looked up rather than searched, pass null
+      //to always search
+      tablebase = t;
+    }
+
+    boolean loadSolution(java.nio.file.Path path){
+      //uses a solved game saved by SolutionFile. If the file is missing or
+      //stale, returns false and moves are searched for as usual
+      LookupTable solved = SolutionFile.read(path);
+      if (solved == null){
+        return false;
+      }
+      lookup = solved;
+      return true;
+    }
+
+    void setPool(ForkJoinPool p){
+      //pass null to search on the calling thread only
+      pool = p;
+    }
+
+    void setTranspositionTable(TranspositionTable t){
+      //pass null to search without a table
+      table = t;
+    }
+
+    void setOpeningBook(OpeningBook b){
+      //early positions in b are answered from it, pass null to search
+      book = b;
+    }
+
+    void setEvaluator(Evaluator e){
+      //scores the positions where a depth or time limited search stops
+      evaluator = e;
+    }
+
+    void setDepthLimit(int moves){
+      //looks at most this many moves ahead, counting its own, and guesses
+      //the rest with the Evaluator. Integer.MAX_VALUE searches to the end
+      depthLimit = Math.max(1, moves);
+    }
+
+    void setMetrics(SearchMetrics m){
+      //every call to getBestMove is added to m, pass null to stop
+      metrics = m;
+    }
+
+    TranspositionTable getTranspositionTable(){
+      return table;
+    }
+
+    LookupTable getLookupTable(){
+      return lookup;
+    }
+
+    Tablebase getTablebase(){
+      return tablebase;
+    }
+
+    OpeningBook getOpeningBook(){
+      return book;
+    }
+
+    String[] getPrincipalVariation(){
+      //the line of play the last call to getBestMove expects, starting
+      //with the move it gave and with best play from both sides after it.
+      //To the end of the game when the outcome is known, otherwise as far
+      //as the search looked
+      String[] moves = new String[lineLength];
+      for (int n = 0; n < lineLength; n++){
+        moves[n] = numToString(line[n]);
+      }
+      return moves;
+    }
+
+    long getNodeCount(){
+      //number of positions visited by the last call to getBestMove
+      return nodes;
+    }
+
+    int getValue(){
+      //1 if the last search found a win for the computer, -1 a loss and 0
+      //a draw, assuming best play from both. 0 if the search did not finish
+      return value;
+    }
+
+    int getDistance(){
+      //moves to the end of the game with best play, -1 if not known
+      return distance;
+    }
+
+    int getSearchDepth(){
+      //moves ahead the last call to getBestMove looked, counting its own
+      return searchDepth;
+    }
+
+    long getElapsedTime(){
+      //nanoseconds the last call to getBestMove spent searching
+      return elapsed;
+    }
+
+    private int evaluate(Board board, int depth, Type side){
+      //determines point value of a finished game for side, the player
+      //whose turn it would be. depth is the number of moves made prior
+      //to game end state
+       Type winner = board.getWinnerType();
+       if (winner == side){
          return WINPOINTS - depth;
        }
-       if (isWinner(board, minimizer)){
+       if (winner != Type.Empty){
          return LOSEPOINTS + depth;
        }
        return 0;
     }
 
-    private int miniMax(Board board, int depth, boolean isMaximizingPlayer){
-    //  Minimax: https://en.wikipedia.org/wiki/Minimax
+    private int negamax(Board board, int depth, Type side, int alpha, int beta){
+    //  Negamax: https://en.wikipedia.org/wiki/Negamax
+    //  Principal variation search: https://en.wikipedia.org/wiki/Principal_variation_search
+    //  Scores are for side, the player to move, so the opponent's score
+    //  of a reply is negated and one branch serves both players
+        nodes++;
+        pvLengths[depth + 1] = 0;
+        if (depth >= maxPly){
+          maxPly = depth + 1;
+        }
+        if (deadline != 0 && (nodes & 1023) == 0 && outOfTime()){
+          aborted = true;
+        }
+        if (aborted){
+          //the result is thrown away, so any value will do
+          return 0;
+        }
         if (board.isGameOver()){
-          return evaluate(board, depth);
-        }
-
-        int bestValue;
-        Board clone = board.cloneBoard();
-
-        if (isMaximizingPlayer) {
-           bestValue = -10000;
-           for (int i = 0; i < SIZE; i++){
-             for(int j = 0; j < SIZE; j++){
-               if (clone.getValue(i, j).equals(Type.Empty)){
-                 clone.makeMove(i, j, maximizer);
-                 int value = miniMax(clone, depth+1, false);
-                 bestValue = max(bestValue, value);
-                 clone.makeMove(i, j, Type.Empty);
-               }
-             }
-           }
-           return bestValue;
-        } else {
-          //is minimizing player
-          bestValue = 10000;
-          for (int i = 0; i < SIZE; i++){
-            for(int j = 0; j < SIZE; j++){
-              if (clone.getValue(i, j).equals(Type.Empty)){
-                clone.makeMove(i, j, minimizer);
-                int value = miniMax(clone, depth+1, true);
-                bestValue = min(bestValue, value);
-                clone.makeMove(i, j, Type.Empty);
+          leaves++;
+          return evaluate(board, depth, side);
+        }
+        if (tablebase != null){
+          int entry = tablebase.probe(board, side);
+          if (entry != 0){
+            leaves++;
+            return fromTablebase(entry, depth);
+          }
+        }
+        if (depth + 1 >= limit){
+          leaves++;
+          return max(-(HEURISTIC - 1), min(HEURISTIC - 1, evaluator.evaluate(board, side)));
+        }
+        if (!pruning){
+          alpha = -INFINITY;
+          beta = INFINITY;
+        }
+
+        //look the position up before searching it
+        int draft = min(board.countEmpty(), limit - depth - 1);
+        long key = tableKey(board, side);
+        int transform = board.getCanonicalTransform();
+        Symmetry sym = board.getSymmetry();
+        int hashMove = -1;
+        if (table != null){
+          long entry = table.probe(key);
+          if (entry == 0){
+            tableMisses++;
+          } else {
+            tableHits++;
+            hashMove = storedMove(entry, board, sym, transform);
+            if (pruning && TranspositionTable.draft(entry) >= draft){
+              int stored = fromTable(TranspositionTable.score(entry), depth);
+              int flag = TranspositionTable.flag(entry);
+              if (flag == TranspositionTable.EXACT){
+                return stored;
+              }
+              if (flag == TranspositionTable.LOWER){
+                alpha = max(alpha, stored);
+              } else {
+                beta = min(beta, stored);
+              }
+              if (alpha >= beta){
+                return stored;
               }
             }
           }
         }
+
+        //no line of play from here can beat the quickest win
+        int ceiling = WINPOINTS - (depth + 1);
+        if (pruning && ceiling <= alpha){
+          return ceiling;
+        }
+        beta = min(beta, ceiling);
+        int alphaIn = alpha;
+
+        int bestValue = -INFINITY;
+        int bestMove = -1;
+        int[] moves = moveLists[depth + 1];
+        int symmetries = symmetry ? board.getSymmetries() : 1;
+        long[] tried = clearTried(depth + 1, symmetries);
+        Type opponent = switchPlayer(side);
+        boolean first = true;
+        int remaining = ordering.orderMoves(board, depth, side, hashMove, moves);
+        for (int n = 0; n < remaining; n++){
+          if (isSymmetricDuplicate(sym, symmetries, moves[n], tried)){
+            continue;
+          }
+          if (pruning && rootBest != null && depth == 0){
+            //another root move may have raised the score to beat, which
+            //for the computer is the negation of this node's score
+            //The moves not searched could score anything, so the node has
+            //no score worth keeping: it is only reported as no better for
+            //the computer than the move already found, and not stored
+            beta = min(beta, 1 - rootBest.get());
+            if (alpha >= beta){
+              return max(bestValue, beta);
+            }
+          }
+          int i = moves[n] / SIZE;
+          int j = moves[n] % SIZE;
+          board.makeMove(i, j, side);
+          int value;
+          if (first || !pruning){
+            value = -negamax(board, depth + 1, opponent, -beta, -alpha);
+          } else {
+            //later moves only have to be shown no better than the best so
+            //far, which a null window does cheaply. One that is better is
+            //searched again to find out by how much
+            value = -negamax(board, depth + 1, opponent, -alpha - 1, -alpha);
+            if (value > alpha && value < beta){
+              value = -negamax(board, depth + 1, opponent, -beta, -alpha);
+            }
+          }
+          board.undoMove(i, j);
+          first = false;
+          if (value > bestValue){
+            bestValue = value;
+            bestMove = moves[n];
+            if (value > alpha){
+              extendLine(depth + 1, bestMove);
+            }
+          }
+          alpha = max(alpha, value);
+          if (pruning && alpha >= beta){
+            cutoffs++;
+            ordering.recordCutoff(depth, side, moves[n], remaining);
+            break;
+          }
+        }
+
+        if (table != null && !aborted && bestMove >= 0){
+          int flag = TranspositionTable.EXACT;
+          if (bestValue <= alphaIn){
+            flag = TranspositionTable.UPPER;
+          } else if (bestValue >= beta){
+            flag = TranspositionTable.LOWER;
+          }
+          table.store(key, toTable(bestValue, depth), draft, flag,
+                      sym.map(transform, bestMove));
+        }
       return bestValue;
     }
 
+    private int searchRoot(Board board, int[] moves, int count, int alpha, int beta){
+      //scores the root moves in the order given and returns the best,
+      //leaving its score for the computer in rootValue. The earliest of
+      //equal moves wins. A score at or outside alpha..beta is only a bound
+      int bestMove = -1;
+      int bestMoveValue = -INFINITY;
+      int currentMove;
+      pvLengths[0] = 0;
+      RootTask[] tasks = null;
+      if (pool != null && count > 1){
+        tasks = searchInParallel(board, moves, count, alpha, beta);
+      }
+      for (int n = 0; n < count && !aborted; n++){
+        if (tasks != null){
+          currentMove = tasks[n].value;
+        } else {
+          int i = moves[n] / SIZE;
+          int j = moves[n] % SIZE;
+          board.makeMove(i, j, computerPlayer);
+          if (n == 0 || !pruning){
+            currentMove = -negamax(board, 0, humanPlayer, -beta, -alpha);
+          } else {
+            currentMove = -negamax(board, 0, humanPlayer, -alpha - 1, -alpha);
+            if (currentMove > alpha && currentMove < beta){
+              currentMove = -negamax(board, 0, humanPlayer, -beta, -alpha);
+            }
+          }
+          board.undoMove(i, j);
+        }
+
+        if (currentMove > bestMoveValue) {
+          bestMoveValue = currentMove;
+          bestMove = moves[n];
+          if (tasks != null){
+            copyLine(tasks[n].worker);
+          }
+          extendLine(0, bestMove);
+        }
+        alpha = max(alpha, currentMove);
+        if (pruning && alpha >= beta){
+          break;
+        }
+      }
+      rootValue = bestMoveValue;
+      return bestMove;
+    }
+
+    private int searchWindow(Board board, int[] moves, int count, int depth){
+      //searches the root with an aspiration window around the score of
+      //the last depth, as the next depth seldom moves it far. A score
+      //outside the window is only a bound, so the window is widened on
+      //that side and the root searched again, until the window is full or
+      //the time is up
+      int delta = ASPIRATION;
+      int alpha = -INFINITY;
+      int beta = INFINITY;
+      if (pruning && depth > 1 && rootValue > -HEURISTIC && rootValue < HEURISTIC){
+        alpha = rootValue - delta;
+        beta = rootValue + delta;
+      }
+      while (true){
+        int move = searchRoot(board, moves, count, alpha, beta);
+        if (aborted || (alpha == -INFINITY && beta == INFINITY)){
+          return move;
+        }
+        if (outOfTime()){
+          //a score outside the window says too little to play on
+          aborted = true;
+          return move;
+        }
+        if (rootValue <= alpha){
+          delta *= 4;
+          alpha = alpha - delta <= -HEURISTIC ? -INFINITY : alpha - delta;
+        } else if (rootValue >= beta){
+          delta *= 4;
+          beta = beta + delta >= HEURISTIC ? INFINITY : beta + delta;
+        } else {
+          return move;
+        }
+      }
+    }
+
+    private void extendLine(int row, int move){
+      //the principal variation of a node is its best move followed by the
+      //principal variation of the position that move leads to
+      int[] line = pvLines[row];
+      int length = pvLengths[row + 1];
+      line[0] = move;
+      System.arraycopy(pvLines[row + 1], 0, line, 1, length);
+      pvLengths[row] = length + 1;
+    }
+
+    private void copyLine(Minimax worker){
+      //the line below a root move searched by another Minimax
+      int length = worker.pvLengths[1];
+      System.arraycopy(worker.pvLines[1], 0, pvLines[1], 0, length);
+      pvLengths[1] = length;
+    }
+
+    private int fromTablebase(int entry, int depth){
+      //the score for the side to move of the game the tablebase says best
+      //play leads to
+      int end = depth + Tablebase.distance(entry);
+      int result = Tablebase.result(entry);
+      if (result == Tablebase.DRAW){
+        return 0;
+      }
+      return result == Tablebase.WIN ? WINPOINTS - end : LOSEPOINTS + end;
+    }
+
+    private void setResult(int score, int empty){
+      //turns a finished root score into getValue() and getDistance()
+      if (score > HEURISTIC || score < -HEURISTIC){
+        value = score > 0 ? 1 : -1;
+        distance = WINPOINTS - Math.abs(score) + 1;
+      } else {
+        value = 0;
+        distance = empty;
+      }
+    }
+
+    private int openingMove(Board board){
+      //a random one of the squares with the most winning lines through
+      //them, which are the central ones
+      Lines lines = board.getLines();
+      int most = 0;
+      int count = 0;
+      for (int k = 0; k < SIZE * SIZE; k++){
+        int through = lines.through(k).length;
+        if (through > most){
+          most = through;
+          count = 0;
+        }
+        if (through == most){
+          count++;
+        }
+      }
+      int pick = java.util.concurrent.ThreadLocalRandom.current().nextInt(count);
+      for (int k = 0; ; k++){
+        if (lines.through(k).length == most && pick-- == 0){
+          return k;
+        }
+      }
+    }
+
+    private void keepLine(){
+      //the line of a finished depth, before the next depth overwrites it
+      lineLength = pvLengths[0];
+      System.arraycopy(pvLines[0], 0, line, 0, lineLength);
+    }
+
+    private void completeLine(Board board, int move, int length){
+      //the principal variation starts with move. Where the search was cut
+      //short by the table, or did not search at all, the line carries on
+      //with the moves the solved game, the tablebase or the table give, up
+      //to length moves
+      if (lineLength == 0 || line[0] != move){
+        line[0] = move;
+        lineLength = 1;
+      }
+      Board after = searchBoard;
+      after.copyFrom(board);
+      Type side = computerPlayer;
+      for (int n = 0; n < lineLength; n++){
+        if (after.isGameOver() || after.getCell(line[n]) != Type.Empty){
+          lineLength = n;
+          break;
+        }
+        after.makeMove(line[n] / SIZE, line[n] % SIZE, side);
+        side = switchPlayer(side);
+      }
+      while (lineLength < length && !after.isGameOver()){
+        int next = knownMove(after, side);
+        if (next < 0 || after.getCell(next) != Type.Empty){
+          break;
+        }
+        after.makeMove(next / SIZE, next % SIZE, side);
+        line[lineLength++] = next;
+        side = switchPlayer(side);
+      }
+    }
+
+    private int knownMove(Board board, Type side){
+      //the best move for side without searching, -1 if none is known
+      int move = lookup == null ? -1 : lookup.getMove(board, side);
+      if (move >= 0){
+        return move;
+      }
+      move = tablebase == null ? -1 : tablebase.getMove(board, side);
+      if (move >= 0){
+        return move;
+      }
+      if (table != null){
+        //a bound's move is the one that decided the bound, which is the
+        //best there is to go on
+        long entry = table.probe(tableKey(board, side));
+        if (entry != 0){
+          return storedMove(entry, board, board.getSymmetry(), board.getCanonicalTransform());
+        }
+      }
+      return -1;
+    }
+
+    private void moveToFront(int[] moves, int count, int move){
+      //the best move of one depth is searched first at the next
+      int n = 0;
+      while (n < count && moves[n] != move){
+        n++;
+      }
+      for (; n > 0; n--){
+        moves[n] = moves[n - 1];
+      }
+      moves[0] = move;
+    }
+
+    private boolean outOfTime(){
+      //an interrupt stops the search the same way as the deadline
+      return System.nanoTime() - deadline > 0 || Thread.currentThread().isInterrupted();
+    }
+
+    private RootTask[] searchInParallel(Board board, int[] moves, int count,
+                                       int alpha, int beta){
+      //scores each root move in its own task. A task only needs to know
+      //if its move is at least as good as the best so far, so it searches
+      //with a window one point below that score
+      AtomicInteger best = new AtomicInteger(alpha);
+      RootTask[] tasks = new RootTask[count];
+      for (int n = 0; n < count; n++){
+        tasks[n] = new RootTask(board, moves[n], best, beta);
+        pool.execute(tasks[n]);
+      }
+      for (int n = 0; n < count; n++){
+        tasks[n].join();
+        Minimax worker = tasks[n].worker;
+        nodes += worker.nodes;
+        leaves += worker.leaves;
+        cutoffs += worker.cutoffs;
+        tableHits += worker.tableHits;
+        tableMisses += worker.tableMisses;
+        maxPly = max(maxPly, worker.maxPly);
+        workerCpu += tasks[n].cpu;
+        aborted |= worker.aborted;
+      }
+      return tasks;
+    }
+
+    private class RootTask extends RecursiveTask<Integer> {
+      private static final long serialVersionUID = 1L;
+      private final Board board;
+      private final int move;
+      private final AtomicInteger best;
+      private final int beta;
+      private Minimax worker;
+      private int value;
+      private long cpu = 0;
+
+      RootTask(Board root, int move, AtomicInteger best, int beta){
+        this.board = root.cloneBoard();
+        this.move = move;
+        this.best = best;
+        this.beta = beta;
+      }
+
+      @Override
+      protected Integer compute(){
+        //a Minimax of its own for the search buffers, sharing the table
+        long start = collecting ? SearchStats.cpuTime() : 0;
+        worker = new Minimax(table);
+        worker.ordering = ordering.copy();
+        worker.tablebase = tablebase;
+        worker.evaluator = evaluator;
+        worker.pruning = pruning;
+        worker.symmetry = symmetry;
+        worker.rootBest = best;
+        worker.limit = limit;
+        worker.deadline = deadline;
+        worker.prepare(board);
+        board.makeMove(move / SIZE, move % SIZE, computerPlayer);
+        value = -worker.negamax(board, 0, humanPlayer, -beta, 1 - best.get());
+        best.accumulateAndGet(value, Math::max);
+        if (collecting){
+          cpu = SearchStats.cpuTime() - start;
+        }
+        return value;
+      }
+    }
+
+    private void copySettings(Minimax to){
+      //everything that decides which move a search picks
+      to.table = table;
+      to.lookup = lookup;
+      to.tablebase = tablebase;
+      to.book = book;
+      to.evaluator = evaluator;
+      to.pruning = pruning;
+      to.symmetry = symmetry;
+      to.depthLimit = depthLimit;
+    }
+
+    private int storedMove(long entry, Board board, Symmetry sym, int transform){
+      //the move kept in a table entry, on board, or -1 if there is none.
+      //An entry torn by another thread or left by a colliding position may
+      //hold any move, so one off the board or on a taken square is ignored
+      int move = TranspositionTable.move(entry);
+      int cells = board.getSize() * board.getSize();
+      if (move < 0 || move >= cells){
+        return -1;
+      }
+      move = sym.unmap(transform, move);
+      return board.getCell(move) == Type.Empty ? move : -1;
+    }
+
+    private long tableKey(Board board, Type side){
+      long key = board.getCanonicalHash() ^ variant;
+      if (side == Type.X){
+        return key ^ TranspositionTable.SIDE;
+      }
+      return key;
+    }
+
+    private void prepare(Board board){
+      //sizes the search buffers for the board, only allocating when the
+      //board size has changed since the last search
+      int cells = board.getSize() * board.getSize();
+      SIZE = board.getSize();
+      variant = TranspositionTable.variant(board.getSize(), board.getWinLength());
+      WINPOINTS = HEURISTIC + cells + 1;
+      LOSEPOINTS = -WINPOINTS;
+      ordering.setSize(board.getSize(), board.getWinLength());
+      if (moveLists.length != cells + 1){
+        moveLists = new int[cells + 1][cells];
+        triedLists = new long[cells + 1][(cells + 63) / 64];
+        pvLines = new int[cells + 1][cells];
+        pvLengths = new int[cells + 1];
+        line = new int[cells];
+      }
+      lineLength = 0;
+    }
+
+    private long[] clearTried(int ply, int symmetries){
+      //the moves tried at a node only matter when the position is symmetric
+      long[] tried = triedLists[ply];
+      if (symmetries != 1){
+        for (int w = 0; w < tried.length; w++){
+          tried[w] = 0;
+        }
+      }
+      return tried;
+    }
+
+    private boolean isSymmetricDuplicate(Symmetry sym, int symmetries,
+                                         int move, long[] tried){
+      //true if a symmetry of the position maps move onto one already
+      //tried, otherwise marks move as tried
+      if (symmetries == 1){
+        return false;
+      }
+      for (int t = 1; t < Symmetry.COUNT; t++){
+        int image = sym.map(t, move);
+        if ((symmetries & (1 << t)) != 0 && (tried[image >>> 6] & (1L << image)) != 0){
+          return true;
+        }
+      }
+      tried[move >>> 6] |= 1L << move;
+      return false;
+    }
+
+    private int toTable(int value, int depth){
+      //scores count moves from the root, the table counts them from the
+      //position itself, so a win in 2 is a win in 2 whenever it is found
+      if (value > HEURISTIC){ return value + depth; }
+      if (value < -HEURISTIC){ return value - depth; }
+      return value;
+    }
+
+    private int fromTable(int value, int depth){
+      if (value > HEURISTIC){ return value - depth; }
+      if (value < -HEURISTIC){ return value + depth; }
+      return value;
+    }
+
     private int max(int a, int b){
       if (a > b){
         return a;
@@ -138,39 +1018,17 @@ class Minimax {
     }
 
     private int coordToNum(int i, int j){
-      if (i == 0 && j == 0){return 0;}
-      if (i == 0 && j == 1){return 1;}
-      if (i == 0 && j == 2){return 2;}
-      if (i == 1 && j == 0){return 3;}
-      if (i == 1 && j == 1){return 4;}
-      if (i == 1 && j == 2){return 5;}
-      if (i == 2 && j == 0){return 6;}
-      if (i == 2 && j == 1){return 7;}
-      if (i == 2 && j == 2){return 8;}
-      return -1;
+      if (i < 0 || i >= SIZE || j < 0 || j >= SIZE){return -1;}
+      return i * SIZE + j;
     }
 
     private String numToString(int move){
-      switch(move){
-         case 0: return "a1";
-         case 1: return "a2";
-         case 2: return "a3";
-         case 3: return "b1";
-         case 4: return "b2";
-         case 5: return "b3";
-         case 6: return "c1";
-         case 7: return "c2";
-         case 8: return "c3";
-      }
-      return "";
-    }
-
-     private boolean isWinner(Board b, Type player){
-       if (b.isGameOver() && !(b.isTie()) && b.getWinnerType().equals(player)){
-         return true;
-       }
-       return false;
-     }
+      //square number to the "b3" form the Board accepts
+      if (move < 0 || move >= SIZE * SIZE){
+        return "";
+      }
+      return (char)('a' + move / SIZE) + Integer.toString(move % SIZE + 1);
+    }
 
      private Type switchPlayer(Type player){
        if(player.equals(Type.X)){
@@ -194,6 +1052,24 @@ class Minimax {
 
         testCoordToNum();
         testGetBestMove();
+        testNoAllocation();
+        testPruning();
+        testTranspositionTable();
+        testSymmetryReduction();
+        testLookupTable();
+        testBigBoards();
+        testParallel();
+        testTimeBudget();
+        testValue();
+        testDepthLimit();
+        testTablebase();
+        testConcurrentCalls();
+        testPrincipalVariation();
+        testAspiration();
+        testEvaluator();
+        testOpeningBook();
+        testStoredMoves();
+        testVariants();
 
     }
 
@@ -223,4 +1099,556 @@ class Minimax {
         setPlayingAs(Type.X);
         assert (getBestMove(b).equals("b2"));
     }
+
+    void testNoAllocation(){
+        //a whole search from a mid-game position should not create garbage
+        java.lang.management.ThreadMXBean bean =
+          java.lang.management.ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)){
+          return;
+        }
+        com.sun.management.ThreadMXBean threads =
+          (com.sun.management.ThreadMXBean) bean;
+        long id = Thread.currentThread().getId();
+        Board b = new Board();
+        b.setBoard("xeeeeeeee");
+        setPlayingAs(Type.O);
+        getBestMove(b);
+
+        long before = threads.getThreadAllocatedBytes(id);
+        getBestMove(b);
+        long after = threads.getThreadAllocatedBytes(id);
+        assert (after - before < 1024);
+    }
+
+    void testPruning(){
+        //alpha-beta must pick the same move as the full search while
+        //visiting fewer positions
+        String[] positions = {"xeeeeeeee", "xoxooxeee", "eoexexoee",
+                              "xeeeoeeee", "eeeexeeee"};
+        Type[] players = {Type.O, Type.X, Type.X, Type.X, Type.O};
+        Board b = new Board();
+        setTranspositionTable(null);
+        for (int n = 0; n < positions.length; n++){
+          b.setBoard(positions[n]);
+          setPlayingAs(players[n]);
+          setPruning(false);
+          String full = getBestMove(b);
+          long fullNodes = getNodeCount();
+          setPruning(true);
+          String pruned = getBestMove(b);
+          long prunedNodes = getNodeCount();
+          assert (full.equals(pruned));
+          assert (prunedNodes < fullNodes);
+        }
+
+        //the only move that does not lose to a corner opening is the centre
+        b.setBoard("xeeeeeeee");
+        setPlayingAs(Type.O);
+        assert (getBestMove(b).equals("b2"));
+
+        //move ordering reduces the work further
+        b.setBoard("eeeexeeee");
+        setMoveOrdering(MoveOrdering.none());
+        getBestMove(b);
+        long plainNodes = getNodeCount();
+        setMoveOrdering(MoveOrdering.standard());
+        getBestMove(b);
+        assert (getNodeCount() < plainNodes);
+        setTranspositionTable(new TranspositionTable(1 << 16));
+    }
+
+    void testTranspositionTable(){
+        Board b = new Board();
+        setTranspositionTable(new TranspositionTable(1 << 16));
+        b.setBoard("eeeexeeee");
+        setPlayingAs(Type.O);
+        String first = getBestMove(b);
+        long firstNodes = getNodeCount();
+        assert (firstNodes > 0);
+        //asking again is answered from the table
+        assert (getBestMove(b).equals(first));
+        assert (getNodeCount() == 0);
+
+        //a later turn of the same game needs less work than from scratch
+        b.setBoard("oeeexeeex");
+        getBestMove(b);
+        long warmNodes = getNodeCount();
+        setTranspositionTable(new TranspositionTable(1 << 16));
+        getBestMove(b);
+        assert (warmNodes < getNodeCount());
+
+        //the table never changes the outcome: engine against itself draws
+        Board game = new Board();
+        for (int start = 0; start < SIZE * SIZE; start++){
+          game.initBoard();
+          game.makeMove(start / SIZE, start % SIZE);
+          while (!game.isGameOver()){
+            setPlayingAs(game.getCurrentPlayerType());
+            assert (game.makeMove(getBestMove(game)));
+          }
+          assert (game.isTie());
+        }
+    }
+
+    void testSymmetryReduction(){
+        Board b = new Board();
+        setTranspositionTable(null);
+        b.setBoard("eeeexeeee");
+        setPlayingAs(Type.O);
+        setSymmetryReduction(false);
+        String full = getBestMove(b);
+        long fullNodes = getNodeCount();
+        setSymmetryReduction(true);
+        assert (getBestMove(b).equals(full));
+        assert (getNodeCount() < fullNodes);
+
+        //a rotated position is answered from the table with a rotated move
+        setTranspositionTable(new TranspositionTable(1 << 16));
+        b.setBoard("xeeeoeeee");
+        setPlayingAs(Type.X);
+        String move = getBestMove(b);
+        b.setBoard(b.getSymmetry().transform(1, "xeeeoeeee"));
+        String rotated = getBestMove(b);
+        assert (getNodeCount() == 0);
+        int k = (move.charAt(0) - 'a') * SIZE + (move.charAt(1) - '1');
+        int r = (rotated.charAt(0) - 'a') * SIZE + (rotated.charAt(1) - '1');
+        assert (b.getSymmetry().map(1, k) == r);
+    }
+
+    void testLookupTable(){
+        Board b = new Board();
+        setLookupTable(LookupTable.solve());
+        b.setBoard("xoxooxeee");
+        setPlayingAs(Type.O);
+        assert (getBestMove(b).equals("c2"));
+        assert (getNodeCount() == 0);
+        //positions the table does not cover are still searched
+        b.setBoard("xxeeeeeee");
+        setPlayingAs(Type.X);
+        assert (getBestMove(b).equals("a3"));
+        assert (getNodeCount() > 0);
+        setLookupTable(null);
+        //a missing solution file leaves the search in charge
+        assert (!loadSolution(java.nio.file.Paths.get("no-such-file.sol")));
+        b.setBoard("xoxooxeee");
+        setPlayingAs(Type.O);
+        assert (getBestMove(b).equals("c2"));
+    }
+
+    void testBigBoards(){
+        //4 in a row on 4x4: take the win, or block it
+        Board b = new Board(4, 4);
+        setTranspositionTable(new TranspositionTable(1 << 16));
+        b.setBoard("xxxeooeeeeeeeeee");
+        setPlayingAs(Type.X);
+        assert (getBestMove(b).equals("a4"));
+        setPlayingAs(Type.O);
+        assert (getBestMove(b).equals("a4"));
+
+        //the 3x3 answers are unchanged after searching a bigger board
+        b = new Board();
+        b.setBoard("xoxooxeee");
+        setPlayingAs(Type.O);
+        assert (getBestMove(b).equals("c2"));
+        assert (coordToNum(2, 3) == -1);
+    }
+
+    void testParallel(){
+        //searching root moves in parallel gives the single thread answers
+        String[] positions = {"xeeeeeeee", "xoxooxeee", "eoexexoee",
+                              "xeeeoeeee", "eeeexeeee", "xeeeoeeex"};
+        ForkJoinPool workers = new ForkJoinPool(4);
+        for (Type player : new Type[]{Type.X, Type.O}){
+          for (String position : positions){
+            Board b = new Board();
+            b.setBoard(position);
+            Minimax single = new Minimax();
+            Minimax parallel = new Minimax();
+            parallel.setPool(workers);
+            single.setPlayingAs(player);
+            parallel.setPlayingAs(player);
+            String move = single.getBestMove(b);
+            assert (parallel.getBestMove(b).equals(move));
+            assert (parallel.getNodeCount() > 0);
+          }
+        }
+        Board b = new Board(4, 4);
+        b.setBoard("xxxeooeeeeeeeeee");
+        Minimax parallel = new Minimax();
+        parallel.setPool(workers);
+        parallel.setPlayingAs(Type.O);
+        assert (parallel.getBestMove(b).equals("a4"));
+
+        //a timed search on a big board keeps to its budget, however the
+        //aspiration windows fail
+        for (int size : new int[]{5, 7}){
+          Board big = new Board(size, 4);
+          big.makeMove(size / 2, size / 2, Type.X);
+          big.makeMove(size / 2, size / 2 + 1, Type.O);
+          Minimax timed = new Minimax();
+          timed.setPool(workers);
+          timed.setPlayingAs(Type.X);
+          for (int n = 0; n < 3; n++){
+            long start = System.nanoTime();
+            assert (big.cloneBoard().makeMove(timed.getBestMove(big, 300)));
+            assert (System.nanoTime() - start < 3000000000L);
+          }
+        }
+        workers.shutdown();
+    }
+
+    void testTimeBudget(){
+        //a short budget on a big board still gives a move, in time
+        Minimax timed = new Minimax();
+        Board b = new Board(5, 4);
+        b.setBoard("eeeeeeeeeeeexeeeeeeeeeeee");
+        timed.setPlayingAs(Type.O);
+        String move = timed.getBestMove(b, 50);
+        assert (b.cloneBoard().makeMove(move));
+        assert (timed.getSearchDepth() >= 1);
+        assert (timed.getSearchDepth() < b.countEmpty());
+        assert (timed.getElapsedTime() < 1000000000L);
+        assert (timed.getNodeCount() > 0);
+
+        //the heuristic sees a win or a block coming
+        b = new Board(4, 4);
+        b.setBoard("xxxeooeeeeeeeeee");
+        timed.setPlayingAs(Type.X);
+        assert (timed.getBestMove(b, 50).equals("a4"));
+        timed.setPlayingAs(Type.O);
+        assert (timed.getBestMove(b, 50).equals("a4"));
+
+        //with time to spare the search reaches the end of the game
+        b = new Board();
+        b.setBoard("xoxooxeee");
+        timed.setPlayingAs(Type.O);
+        assert (timed.getBestMove(b, 10000).equals("c2"));
+        assert (timed.getSearchDepth() == 3);
+
+        //an interrupt ends the search early, keeping the first depth
+        b = new Board(5, 4);
+        b.setBoard("eeeeeeeeeeeexeeeeeeeeeeee");
+        timed.setPlayingAs(Type.O);
+        Thread.currentThread().interrupt();
+        move = timed.getBestMove(b, 60000);
+        assert (Thread.interrupted());
+        assert (b.cloneBoard().makeMove(move));
+        assert (timed.getElapsedTime() < 1000000000L);
+    }
+
+    void testValue(){
+        //the outcome and length of the game agree with the solved game
+        LookupTable solved = LookupTable.solve();
+        Minimax fresh = new Minimax();
+        String[] positions = {"xoxooxeee", "xeeeeeeee", "eoexexoee", "xxeoeeeee"};
+        Board b = new Board();
+        for (String position : positions){
+          b.setBoard(position);
+          for (Type player : new Type[]{Type.X, Type.O}){
+            if (!solved.contains(b, player)){
+              continue;
+            }
+            fresh.setPlayingAs(player);
+            fresh.getBestMove(b);
+            int expected = Integer.signum(solved.getValue(b, player));
+            if (player == Type.O){ expected = -expected; }
+            assert (fresh.getValue() == expected);
+            assert (fresh.getDistance() == solved.getDistance(b, player));
+            //and again from the table
+            fresh.getBestMove(b);
+            assert (fresh.getNodeCount() == 0);
+            assert (fresh.getValue() == expected);
+            assert (fresh.getDistance() == solved.getDistance(b, player));
+          }
+        }
+        fresh.setLookupTable(solved);
+        b.setBoard("xoxooxeee");
+        fresh.setPlayingAs(Type.X);
+        fresh.getBestMove(b);
+        assert (fresh.getValue() == 1 && fresh.getDistance() == 1);
+    }
+
+    void testDepthLimit(){
+        Minimax shallow = new Minimax();
+        Board b = new Board();
+        b.setBoard("xoxooxeee");
+        shallow.setDepthLimit(1);
+        shallow.setPlayingAs(Type.X);
+        //one move ahead is enough to take a win
+        assert (shallow.getBestMove(b).equals("c3"));
+        assert (shallow.getSearchDepth() == 1);
+        //but not to see a fork coming, so the outcome is not known
+        b.setBoard("xeeeeeeee");
+        shallow.setPlayingAs(Type.O);
+        shallow.getBestMove(b);
+        assert (shallow.getSearchDepth() == 1);
+        assert (shallow.getDistance() == -1);
+        assert (shallow.getNodeCount() <= 8);
+        shallow.setDepthLimit(Integer.MAX_VALUE);
+        assert (shallow.getBestMove(b).equals("b2"));
+        assert (shallow.getDistance() == 8);
+    }
+
+    void testTablebase(){
+        //an endgame table agrees with the full search and cuts it short
+        Tablebase endgame = Tablebase.solve(4, 4, 8);
+        Board b = new Board(4, 4);
+        b.setBoard("xoeeexeeeeoeeexe");
+        Minimax plain = new Minimax();
+        plain.setPlayingAs(Type.O);
+        plain.getBestMove(b);
+        Minimax probing = new Minimax();
+        probing.setTablebase(endgame);
+        probing.setPlayingAs(Type.O);
+        probing.getBestMove(b);
+        assert (probing.getValue() == plain.getValue());
+        assert (probing.getDistance() == plain.getDistance());
+        assert (probing.getNodeCount() < plain.getNodeCount());
+        //a position the table knows is answered without a search
+        b.setBoard("xoxoxoxoeeeeeeee");
+        probing.setPlayingAs(Type.X);
+        assert (probing.getBestMove(b).equals(endgame.chooseMove(b, Type.X)));
+        assert (probing.getNodeCount() == 0);
+    }
+
+    void testConcurrentCalls(){
+        //threads sharing one Minimax and its table all get best moves
+        LookupTable solved = LookupTable.solve();
+        Minimax shared = new Minimax();
+        java.util.List<String> positions = new java.util.ArrayList<>();
+        java.util.Random random = new java.util.Random(3);
+        for (int n = 0; n < 400; n++){
+          Board b = new Board();
+          int moves = 1 + random.nextInt(7);
+          for (int m = 0; m < moves && !b.isGameOver(); m++){
+            int k;
+            do { k = random.nextInt(9); } while (b.getCell(k) != Type.Empty);
+            b.makeMove(k / 3, k % 3);
+          }
+          if (!b.isGameOver()){
+            positions.add(b.getBoard() + b.getCurrentPlayer());
+          }
+        }
+        java.util.concurrent.ExecutorService threads =
+          java.util.concurrent.Executors.newFixedThreadPool(8);
+        java.util.List<java.util.concurrent.Future<Boolean>> results =
+          new java.util.ArrayList<>();
+        for (int t = 0; t < 8; t++){
+          results.add(threads.submit(() -> {
+            boolean ok = true;
+            for (String p : positions){
+              Board b = new Board();
+              b.setBoard(p.substring(0, 9));
+              Type side = p.charAt(9) == 'X' ? Type.X : Type.O;
+              int before = solved.getValue(b, side);
+              String move = shared.getBestMove(b, side);
+              int k = (move.charAt(0) - 'a') * 3 + (move.charAt(1) - '1');
+              ok &= b.getCell(k) == Type.Empty;
+              b.makeMove(k / 3, k % 3, side);
+              int after = solved.getValue(b, side == Type.X ? Type.O : Type.X);
+              ok &= before == (after > 0 ? after - 1 : after < 0 ? after + 1 : 0);
+            }
+            return ok;
+          }));
+        }
+        try {
+          for (java.util.concurrent.Future<Boolean> r : results){
+            assert (r.get());
+          }
+        } catch (InterruptedException | java.util.concurrent.ExecutionException e){
+          throw new Error(e);
+        } finally {
+          threads.shutdown();
+        }
+        //the instance's own settings are untouched
+        assert (shared.getPlayingAs() == Type.X);
+    }
+
+    void testPrincipalVariation(){
+        //the line starts with the move given and is played out to the end
+        //of the game, as long as the outcome says
+        String[] positions = {"xoeeeeeee", "xeeeeeeee", "xoxooxeee", "xeeeoeeex"};
+        Type[] players = {Type.X, Type.O, Type.X, Type.O};
+        ForkJoinPool workers = new ForkJoinPool(4);
+        for (int n = 0; n < positions.length; n++){
+          for (ForkJoinPool p : new ForkJoinPool[]{null, workers}){
+            Minimax fresh = new Minimax();
+            fresh.setPool(p);
+            Board b = new Board();
+            b.setBoard(positions[n]);
+            fresh.setPlayingAs(players[n]);
+            String move = fresh.getBestMove(b);
+            String[] line = fresh.getPrincipalVariation();
+            assert (line[0].equals(move));
+            assert (line.length == fresh.getDistance());
+            Type side = players[n];
+            for (String m : line){
+              int k = (m.charAt(0) - 'a') * 3 + (m.charAt(1) - '1');
+              assert (!b.isGameOver() && b.getCell(k) == Type.Empty);
+              b.makeMove(k / 3, k % 3, side);
+              side = switchPlayer(side);
+            }
+            assert (b.isGameOver());
+            Type loser = switchPlayer(players[n]);
+            assert (b.getWinnerType() == (fresh.getValue() > 0 ? players[n]
+                                          : fresh.getValue() < 0 ? loser : Type.Empty));
+          }
+        }
+        workers.shutdown();
+
+        //answers from the table and the solved game come with a line too
+        Board b = new Board();
+        b.setBoard("xoeeeeeee");
+        Minimax fresh = new Minimax();
+        fresh.setPlayingAs(Type.X);
+        fresh.getBestMove(b);
+        String[] searched = fresh.getPrincipalVariation();
+        fresh.getBestMove(b);
+        assert (fresh.getNodeCount() == 0);
+        assert (java.util.Arrays.equals(fresh.getPrincipalVariation(), searched));
+        fresh.setLookupTable(LookupTable.solve());
+        b.setBoard("xoxooxeee");
+        assert (java.util.Arrays.equals(fresh.getPrincipalVariation(), searched));
+        assert (fresh.getBestMove(b).equals("c3"));
+        assert (java.util.Arrays.equals(fresh.getPrincipalVariation(), new String[]{"c3"}));
+
+        //a search that stops early gives no more than it looked at
+        Minimax timed = new Minimax();
+        b = new Board(5, 4);
+        b.setBoard("eeeeeeeeeeeexeeeeeeeeeeee");
+        timed.setPlayingAs(Type.O);
+        String move = timed.getBestMove(b, 50);
+        String[] line = timed.getPrincipalVariation();
+        assert (line.length >= 1 && line[0].equals(move));
+        assert (line.length <= timed.getSearchDepth());
+    }
+
+    void testAspiration(){
+        //deepening with aspiration windows ends with the full search's
+        //answer, even though the heuristic scores of the early depths are
+        //far from the final score
+        Board b = new Board(4, 4);
+        String[] positions = {"xoeeexeeeeoeeexe", "xeeeeoeeeeeeeeee", "xxeeooeeeeeeeeee"};
+        Type[] players = {Type.O, Type.X, Type.X};
+        for (int n = 0; n < positions.length; n++){
+          b.setBoard(positions[n]);
+          Minimax full = new Minimax();
+          full.setPlayingAs(players[n]);
+          full.getBestMove(b);
+          Minimax deepening = new Minimax();
+          deepening.setPlayingAs(players[n]);
+          deepening.getBestMove(b, 60000);
+          assert (deepening.getSearchDepth() == b.countEmpty());
+          assert (deepening.getValue() == full.getValue());
+          assert (deepening.getDistance() == full.getDistance());
+        }
+    }
+
+    void testEvaluator(){
+        //only a search that stops short asks the evaluator
+        int[] calls = {0};
+        PatternEvaluator pattern = new PatternEvaluator();
+        Minimax counted = new Minimax();
+        counted.setEvaluator((board, side) -> {
+          calls[0]++;
+          return pattern.evaluate(board, side);
+        });
+        Board b = new Board();
+        b.setBoard("xeeeeeeee");
+        counted.setPlayingAs(Type.O);
+        counted.getBestMove(b);
+        assert (calls[0] == 0);
+        counted.setDepthLimit(2);
+        b = new Board(5, 4);
+        b.setBoard("eeeeeeeeeeeexeeeeeeeeeeee");
+        counted.getBestMove(b);
+        assert (calls[0] > 0);
+
+        //two moves ahead is enough to see an open two become a fork: X on
+        //b5 or b2 would threaten both ends, so O must take one of them
+        b = new Board(7, 4);
+        b.setBoard("oeeeeee" + "eexxeee" + "eeeeeee" + "eeeeeee"
+                   + "eeeeeee" + "eeeeeee" + "eeeeeeo");
+        Minimax shallow = new Minimax();
+        shallow.setDepthLimit(2);
+        shallow.setPlayingAs(Type.O);
+        String block = shallow.getBestMove(b);
+        assert (block.equals("b2") || block.equals("b5"));
+        //one move ahead only sees the open lines, and takes the centre
+        shallow.setDepthLimit(1);
+        assert (shallow.getBestMove(b).equals("d4"));
+    }
+
+    void testOpeningBook(){
+        //early positions in the book are answered without a search
+        Minimax booked = new Minimax();
+        booked.setOpeningBook(OpeningBook.standard());
+        Board b = new Board();
+        b.setBoard("xeeeeeeee");
+        booked.setPlayingAs(Type.O);
+        assert (booked.getBestMove(b).equals("b2"));
+        assert (booked.getNodeCount() == 0);
+        assert (booked.getPrincipalVariation().length == 1);
+        //later ones are searched as before
+        b.setBoard("xoxooxeee");
+        assert (booked.getBestMove(b).equals("c2"));
+        assert (booked.getNodeCount() > 0);
+
+        //without a book the game opens on a central square
+        Minimax plain = new Minimax();
+        plain.setPlayingAs(Type.X);
+        assert (plain.getBestMove(new Board()).equals("b2"));
+        java.util.Set<String> opened = new java.util.HashSet<>();
+        for (int n = 0; n < 200; n++){
+          opened.add(plain.getBestMove(new Board(4, 3)));
+        }
+        assert (opened.equals(java.util.Set.of("b2", "b3", "c2", "c3")));
+    }
+
+    void testStoredMoves(){
+        //table entries whose move is off the board or on a taken square,
+        //as a torn or colliding entry may hold, are not played or tried
+        Minimax checked = new Minimax();
+        TranspositionTable t = checked.getTranspositionTable();
+        Board b = new Board();
+        b.setBoard("xoxooxeee");
+        for (int k = 6; k < 9; k++){
+          b.makeMove(k / 3, k % 3, Type.X);
+          t.store(checked.tableKey(b, Type.O), 0, 0, TranspositionTable.LOWER, 20);
+          b.undoMove(k / 3, k % 3);
+        }
+        int taken = b.getSymmetry().map(b.getCanonicalTransform(), 0);
+        t.store(checked.tableKey(b, Type.X), 0, 9, TranspositionTable.EXACT, taken);
+        checked.setPlayingAs(Type.X);
+        assert (checked.getBestMove(b).equals("c3"));
+        assert (checked.getNodeCount() > 0);
+        t.store(checked.tableKey(b, Type.X), 0, 9, TranspositionTable.EXACT, 20);
+        assert (checked.getBestMove(b).equals("c3"));
+        assert (checked.getPrincipalVariation()[0].equals("c3"));
+    }
+
+    void testVariants(){
+        //one engine playing several sizes and win lengths searches each
+        //as a fresh engine would, as the table tells them apart
+        Minimax reused = new Minimax();
+        reused.setDepthLimit(5);
+        Board b = new Board(4, 3);
+        b.setBoard("xeeeeoeeeeeeeeee");
+        reused.setPlayingAs(Type.X);
+        reused.getBestMove(b);
+        Board small = new Board(4, 4);
+        small.setBoard("xeeeeoeeeeeeeeee");
+        String move = reused.getBestMove(small);
+        Minimax fresh = new Minimax();
+        fresh.setDepthLimit(5);
+        fresh.setPlayingAs(Type.X);
+        assert (fresh.getBestMove(small).equals(move));
+        assert (fresh.getNodeCount() == reused.getNodeCount());
+        //and a bigger board's moves are never tried on a smaller one
+        Board big = new Board(5, 3);
+        big.setBoard("xeeeeeoeeeeeeeeeeeeeeeeee");
+        reused.getBestMove(big);
+        assert (reused.getBestMove(small).equals(move));
+    }
 }
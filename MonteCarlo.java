@@ -0,0 +1,506 @@
+/* Picks moves by Monte Carlo tree search with the UCT rule, as another
+   engine behind the same contract as Minimax. Each iteration walks down
+   the tree from the current position, at each node taking the child with
+   the best upper confidence bound (its win rate plus a bonus that is
+   bigger for moves tried less often), adds the children of the node it
+   stops at, plays the rest of the game out at random and passes the result
+   back up. The move played is the root child that was tried most.
+
+   The tree is held in flat arrays, the children of a node side by side,
+   and playouts reuse one Board and one list of empty squares, so an
+   iteration allocates nothing. After a move the subtree under the position
+   that comes back (our move, then the reply) is kept for the next search
+   rather than grown again; when the arrays fill up the tree starts over.
+
+   A search runs for setIterations() iterations, or for setTimeBudget()
+   milliseconds when that is set. Given a ForkJoinPool with setPool, every
+   thread of the pool grows its own tree from the same position (root
+   parallelism) and the visits of the root moves are added up.
+
+   The trees are kept between calls, so a MonteCarlo may only be used by
+   one thread at a time; an Arena makes one per thread. Playing an Arena
+   between two budgets shows what more time is worth */
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+class MonteCarlo implements MoveProvider {
+    private static final int CAPACITY = 1 << 18;
+    private Type computerPlayer = Type.X;
+    private int iterations = 20000;
+    private long timeBudget = 0;
+    private double exploration = Math.sqrt(2);
+    private ForkJoinPool pool = null;
+    private SplittableRandom seeds;
+    private Tree[] trees = new Tree[0];
+    private long iterationCount = 0;
+    private boolean reused = false;
+
+    MonteCarlo(){
+      this(System.nanoTime());
+    }
+
+    MonteCarlo(long seed){
+      seeds = new SplittableRandom(seed);
+    }
+
+    String getBestMove(Board board){
+      if (board.isGameOver()){
+        return "";
+      }
+      int count = pool == null ? 1 : pool.getParallelism();
+      if (trees.length != count){
+        trees = new Tree[count];
+        for (int t = 0; t < count; t++){
+          trees[t] = new Tree(seeds.split());
+        }
+      }
+      long deadline = timeBudget > 0 ? System.nanoTime() + timeBudget * 1000000 : 0;
+      int each = Math.max(1, iterations / count);
+      reused = true;
+      for (Tree tree : trees){
+        reused &= tree.prepare(board, computerPlayer);
+      }
+
+      if (count == 1){
+        trees[0].grow(each, deadline);
+      } else {
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[count];
+        for (int t = 0; t < count; t++){
+          Tree tree = trees[t];
+          tasks[t] = pool.submit(() -> tree.grow(each, deadline));
+        }
+        for (ForkJoinTask<?> task : tasks){
+          task.join();
+        }
+      }
+
+      //add up the visits of each root move over all the trees
+      int size = board.getSize();
+      long[] visits = new long[size * size];
+      iterationCount = 0;
+      for (Tree tree : trees){
+        tree.addRootVisits(visits);
+        iterationCount += tree.grown;
+      }
+      int best = -1;
+      for (int k = 0; k < visits.length; k++){
+        if (board.getCell(k) == Type.Empty && (best < 0 || visits[k] > visits[best])){
+          best = k;
+        }
+      }
+      return (char)('a' + best / size) + Integer.toString(best % size + 1);
+    }
+
+    @Override
+    public String chooseMove(Board board, Type player){
+      setPlayingAs(player);
+      return getBestMove(board);
+    }
+
+    void setPlayingAs(Type p){
+      computerPlayer = p;
+    }
+
+    Type getPlayingAs(){
+      return computerPlayer;
+    }
+
+    void setIterations(int n){
+      //iterations per search, shared out between the trees
+      iterations = n;
+    }
+
+    void setTimeBudget(long millis){
+      //when above 0, search for this long instead of a number of iterations
+      timeBudget = millis;
+    }
+
+    void setExploration(double c){
+      //the weight of the confidence bonus, sqrt(2) unless set
+      exploration = c;
+    }
+
+    void setPool(ForkJoinPool p){
+      //null searches one tree on the calling thread
+      pool = p;
+    }
+
+    long getIterationCount(){
+      //iterations run by the last search, over all the trees
+      return iterationCount;
+    }
+
+    boolean wasReused(){
+      //whether the last search carried on from the trees of the one before
+      return reused;
+    }
+
+    //one search tree, grown by one thread
+    private class Tree {
+        private int[] move = new int[CAPACITY];
+        private int[] parent = new int[CAPACITY];
+        private int[] first = new int[CAPACITY];
+        private int[] children = new int[CAPACITY];
+        private int[] visits = new int[CAPACITY];
+        private double[] wins = new double[CAPACITY];
+        private int nodes = 0;
+        private int root = -1;
+        private Board position = null;
+        private Board board = null;
+        private Type toMove = Type.X;
+        private int[] empty = new int[0];
+        private int emptyCount = 0;
+        private int[] squares = new int[0];
+        private int[] where = new int[0];
+        private SplittableRandom random;
+        private long grown = 0;
+
+        Tree(SplittableRandom random){
+          this.random = random;
+        }
+
+        boolean prepare(Board b, Type player){
+          //moves the root to b, keeping what is known about it when b
+          //follows from the last root, and says whether it could
+          boolean kept = root >= 0 && nodes < CAPACITY / 2 && reroot(b, player);
+          if (!kept){
+            nodes = 0;
+            root = newNode(-1, -1);
+          }
+          if (position == null || position.getSize() != b.getSize()){
+            position = b.cloneBoard();
+            board = b.cloneBoard();
+            int cells = b.getSize() * b.getSize();
+            empty = new int[cells];
+            squares = new int[cells];
+            where = new int[cells];
+          } else {
+            position.copyFrom(b);
+          }
+          toMove = player;
+          emptyCount = 0;
+          for (int k = 0; k < empty.length; k++){
+            if (b.getCell(k) == Type.Empty){
+              empty[emptyCount++] = k;
+            }
+          }
+          return kept;
+        }
+
+        void grow(int n, long deadline){
+          grown = 0;
+          for (long i = 0; ; i++){
+            if (deadline != 0){
+              if (i > 0 && (i & 63) == 0 && System.nanoTime() >= deadline){
+                break;
+              }
+            } else if (i >= n){
+              break;
+            }
+            iterate();
+            grown++;
+          }
+        }
+
+        void addRootVisits(long[] total){
+          for (int c = first[root]; c >= 0 && c < first[root] + children[root]; c++){
+            total[move[c]] += visits[c];
+          }
+        }
+
+        private void iterate(){
+          board.copyFrom(position);
+          System.arraycopy(empty, 0, squares, 0, emptyCount);
+          for (int j = 0; j < emptyCount; j++){
+            where[squares[j]] = j;
+          }
+          int left = emptyCount;
+          int node = root;
+          Type player = toMove;
+
+          //down the tree while the nodes have children
+          while (first[node] >= 0 && !board.isGameOver()){
+            node = select(node);
+            left = play(move[node], player, left);
+            player = other(player);
+          }
+          //grow it by one level once a node has been seen before
+          if (!board.isGameOver() && (visits[node] > 0 || node == root)
+              && nodes + left <= CAPACITY){
+            expand(node, left);
+            node = select(node);
+            left = play(move[node], player, left);
+            player = other(player);
+          }
+          Type mover = other(player);
+          //then random moves to the end of the game
+          while (!board.isGameOver()){
+            left = play(squares[random.nextInt(left)], player, left);
+            player = other(player);
+          }
+
+          Type winner = board.isTie() ? Type.Empty : board.getWinnerType();
+          for (; node >= 0; node = parent[node]){
+            visits[node]++;
+            if (winner == Type.Empty){
+              wins[node] += 0.5;
+            } else if (winner == mover){
+              wins[node] += 1;
+            }
+            mover = other(mover);
+          }
+        }
+
+        private int select(int node){
+          //an untried child if there is one, or the best bound
+          int best = -1;
+          double bestScore = Double.NEGATIVE_INFINITY;
+          double log = Math.log(visits[node]);
+          for (int c = first[node]; c < first[node] + children[node]; c++){
+            if (visits[c] == 0){
+              return c;
+            }
+            double score = wins[c] / visits[c] + exploration * Math.sqrt(log / visits[c]);
+            if (score > bestScore){
+              bestScore = score;
+              best = c;
+            }
+          }
+          return best;
+        }
+
+        private void expand(int node, int left){
+          first[node] = nodes;
+          children[node] = left;
+          for (int j = 0; j < left; j++){
+            newNode(squares[j], node);
+          }
+        }
+
+        private int newNode(int square, int from){
+          int n = nodes++;
+          move[n] = square;
+          parent[n] = from;
+          first[n] = -1;
+          children[n] = 0;
+          visits[n] = 0;
+          wins[n] = 0;
+          return n;
+        }
+
+        private int play(int square, Type player, int left){
+          //makes the move and takes its square out of the empty list
+          int size = board.getSize();
+          board.makeMove(square / size, square % size, player);
+          int j = where[square];
+          int last = squares[left - 1];
+          squares[j] = last;
+          where[last] = j;
+          return left - 1;
+        }
+
+        private boolean reroot(Board b, Type player){
+          //finds b below the root: the same position, our move, or our
+          //move and a reply
+          if (position.getSize() != b.getSize()
+              || position.getWinLength() != b.getWinLength()){
+            return false;
+          }
+          int ours = -1;
+          int theirs = -1;
+          int changed = 0;
+          for (int k = 0; k < empty.length; k++){
+            Type was = position.getCell(k);
+            Type now = b.getCell(k);
+            if (was == now){
+              continue;
+            }
+            if (was != Type.Empty){
+              return false;
+            }
+            changed++;
+            if (now == toMove){
+              ours = k;
+            } else {
+              theirs = k;
+            }
+          }
+          if (changed > 2 || (theirs >= 0 && ours < 0) || (changed == 2 && theirs < 0)){
+            return false;
+          }
+          int node = root;
+          Type next = toMove;
+          for (int square : new int[]{ours, theirs}){
+            if (square < 0){
+              break;
+            }
+            node = child(node, square);
+            if (node < 0){
+              return false;
+            }
+            next = other(next);
+          }
+          if (next != player){
+            return false;
+          }
+          root = node;
+          parent[root] = -1;
+          return true;
+        }
+
+        private int child(int node, int square){
+          for (int c = first[node]; c >= 0 && c < first[node] + children[node]; c++){
+            if (move[c] == square){
+              return c;
+            }
+          }
+          return -1;
+        }
+    }
+
+    //---------Private methods ------------
+
+    private static Type other(Type player){
+      return player == Type.X ? Type.O : Type.X;
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        MonteCarlo program = new MonteCarlo(1);
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea MonteCarlo");
+
+        testWin();
+        testBlock();
+        testReuse();
+        testSizeChange();
+        testTimeBudget();
+        testParallel();
+        testBigBoard();
+        testAgainstRandom();
+        testBudgets();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testWin(){
+      Board b = new Board();
+      b.setBoard("xoxooxeee");
+      setIterations(2000);
+      assert( chooseMove(b, Type.X).equals("c3") );
+      assert( getIterationCount() == 2000 );
+      assert( chooseMove(b, Type.O).equals("c2") );
+      b.setBoard("xoxoxoxox");
+      assert( chooseMove(b, Type.O).equals("") );
+    }
+
+    private void testBlock(){
+      Board b = new Board();
+      b.setBoard("xxeeoeeee");
+      setIterations(20000);
+      assert( chooseMove(b, Type.O).equals("a3") );
+      //taking a corner here lets X make two threats at once
+      b.setBoard("xeeeoeeex");
+      String move = chooseMove(b, Type.O);
+      assert( move.equals("a2") || move.equals("b1") || move.equals("b3") || move.equals("c2") );
+    }
+
+    private void testReuse(){
+      //the tree under the reply is kept, but not across unrelated positions
+      Board b = new Board();
+      b.setBoard("xeeeeeeee");
+      setIterations(5000);
+      chooseMove(b, Type.O);
+      assert( !wasReused() );
+      chooseMove(b, Type.O);
+      assert( wasReused() );
+      b.makeMove(1, 1, Type.O);
+      b.makeMove(0, 2, Type.X);
+      assert( chooseMove(b, Type.O).equals("a2") );
+      assert( wasReused() );
+      b.setBoard("eeeexeeee");
+      chooseMove(b, Type.O);
+      assert( !wasReused() );
+      chooseMove(b, Type.X);
+      assert( !wasReused() );
+    }
+
+    private void testSizeChange(){
+      //a tree from one board size is never rerooted onto another
+      MonteCarlo mc = new MonteCarlo(6);
+      mc.setIterations(2000);
+      Board big = new Board(5, 3);
+      big.setBoard("xeeeeeeeeeeeeeeeeeeeeeeee");
+      mc.chooseMove(big, Type.O);
+      Board small = new Board(4, 3);
+      small.setBoard("xeeeeeeeeeeeeeee");
+      assert( small.makeMove(mc.chooseMove(small, Type.O)) );
+      assert( !mc.wasReused() );
+      assert( big.makeMove(mc.chooseMove(big, Type.O)) );
+      assert( !mc.wasReused() );
+    }
+
+    private void testTimeBudget(){
+      Board b = new Board(7, 4);
+      setTimeBudget(50);
+      long start = System.nanoTime();
+      String move = chooseMove(b, Type.X);
+      long took = (System.nanoTime() - start) / 1000000;
+      setTimeBudget(0);
+      assert( b.makeMove(move) );
+      assert( took >= 50 && took < 1000 );
+      assert( getIterationCount() > 0 );
+    }
+
+    private void testParallel(){
+      ForkJoinPool workers = new ForkJoinPool(4);
+      try {
+        MonteCarlo mc = new MonteCarlo(2);
+        mc.setPool(workers);
+        mc.setIterations(20000);
+        Board b = new Board();
+        b.setBoard("xxeeoeeee");
+        assert( mc.chooseMove(b, Type.O).equals("a3") );
+        assert( mc.getIterationCount() == 20000 );
+      } finally {
+        workers.shutdown();
+      }
+    }
+
+    private void testBigBoard(){
+      //three in a row on 7x7 must be blocked at its open end
+      Board b = new Board(7, 4);
+      b.setBoard("eeeeeee" + "eeeeeee" + "oxxxeee" + "eeeeeee"
+                 + "eeeoeee" + "eeeeeee" + "eeeeeee");
+      setIterations(20000);
+      assert( chooseMove(b, Type.O).equals("c5") );
+    }
+
+    private void testAgainstRandom(){
+      Arena arena = new Arena(() -> new MonteCarlo(3), () -> new RandomPlayer(4));
+      Arena.Report r = arena.play(40, 1);
+      assert( r.games() == 40 && r.secondWins.sum() == 0 );
+      assert( r.firstWins.sum() > r.draws.sum() );
+    }
+
+    private void testBudgets(){
+      //more iterations never do worse than a few
+      Arena arena = new Arena(() -> new MonteCarlo(5), () -> {
+        MonteCarlo weak = new MonteCarlo(6);
+        weak.setIterations(30);
+        return weak;
+      });
+      Arena.Report r = arena.play(40, 1);
+      assert( r.secondWins.sum() == 0 );
+      assert( r.firstWins.sum() > 0 );
+    }
+}
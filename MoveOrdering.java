@@ -0,0 +1,265 @@
+/* Decides the order in which Minimax tries the empty squares of a Board.
+   Good ordering lets alpha-beta cut off more of the tree.
+
+   Squares are ranked by a static preference (how many winning lines pass
+   through the square: on 3x3 the centre, then corners, then edges), then
+   by killer moves (moves that caused a cutoff at the same
+   depth) and by a history score (how often a square has caused cutoffs
+   anywhere in the search). A move remembered for the position by a
+   TranspositionTable always goes first. Each part can be switched off.
+   All buffers are allocated up front so ordering does not create garbage
+   during a search */
+
+class MoveOrdering {
+    private int SIZE = 0;
+    private int WINLENGTH = 0;
+    private int MAXDEPTH;
+    //history scores are kept below this, so that four times the largest,
+    //as orderMoves weighs them, stays under the second killer's bonus
+    private int HISTORYLIMIT = 100000;
+    private boolean useStatic;
+    private boolean useKillers;
+    private boolean useHistory;
+    private int[] staticScore;
+    private int[][] killers;
+    private int[][] history;
+    private int[][] scores;
+
+    MoveOrdering(boolean useStatic, boolean useKillers, boolean useHistory){
+      this.useStatic = useStatic;
+      this.useKillers = useKillers;
+      this.useHistory = useHistory;
+      setSize(3, 3);
+    }
+
+    MoveOrdering copy(){
+      //the same settings with empty tables, for another search thread
+      MoveOrdering other = new MoveOrdering(useStatic, useKillers, useHistory);
+      other.setSize(SIZE, WINLENGTH);
+      return other;
+    }
+
+    void setSize(int size, int winLength){
+      //makes the tables fit the board, only allocating if it has changed
+      if (size == SIZE && winLength == WINLENGTH){
+        return;
+      }
+      SIZE = size;
+      WINLENGTH = winLength;
+      MAXDEPTH = size * size + 1;
+      staticScore = new int[SIZE * SIZE];
+      killers = new int[MAXDEPTH][2];
+      history = new int[2][SIZE * SIZE];
+      scores = new int[MAXDEPTH + 1][SIZE * SIZE];
+      for (int k = 0; k < SIZE * SIZE; k++){
+        staticScore[k] = squareRank(k / SIZE, k % SIZE);
+      }
+      clear();
+    }
+
+    static MoveOrdering none(){
+      //plain row by row order, as the original search used
+      return new MoveOrdering(false, false, false);
+    }
+
+    static MoveOrdering standard(){
+      return new MoveOrdering(true, true, true);
+    }
+
+    void clear(){
+      //forget killers and history, called at the start of each search
+      for (int d = 0; d < MAXDEPTH; d++){
+        killers[d][0] = -1;
+        killers[d][1] = -1;
+      }
+      for (int p = 0; p < 2; p++){
+        for (int k = 0; k < SIZE * SIZE; k++){
+          history[p][k] = 0;
+        }
+      }
+    }
+
+    int orderMoves(Board board, int depth, Type player, int hashMove,
+                   int[] moves){
+      //writes the empty squares of board into moves, best first, and
+      //returns how many there are. depth < 0 means the root, where only the
+      //static order is used so the choice between equal moves is repeatable.
+      //hashMove is tried first, or pass -1 for none
+      int[] score = scores[depth + 1];
+      int count = 0;
+      for (int k = 0; k < SIZE * SIZE; k++){
+        if (board.getCell(k) != Type.Empty){
+          continue;
+        }
+        int s = 0;
+        if (k == hashMove){
+          s += 100000000;
+        }
+        if (useStatic){
+          s += staticScore[k];
+        }
+        if (depth >= 0 && useKillers){
+          if (killers[depth][0] == k){ s += 2000000; }
+          else if (killers[depth][1] == k){ s += 1000000; }
+        }
+        if (depth >= 0 && useHistory){
+          s += history[playerIndex(player)][k] * 4;
+        }
+        //insertion sort, stable so equal squares stay in row order
+        int pos = count++;
+        while (pos > 0 && score[pos - 1] < s){
+          moves[pos] = moves[pos - 1];
+          score[pos] = score[pos - 1];
+          pos--;
+        }
+        moves[pos] = k;
+        score[pos] = s;
+      }
+      return count;
+    }
+
+    void recordCutoff(int depth, Type player, int move, int remaining){
+      //remember a move that refuted the opponent at this depth
+      if (useKillers && killers[depth][0] != move){
+        killers[depth][1] = killers[depth][0];
+        killers[depth][0] = move;
+      }
+      if (useHistory){
+        int[] table = history[playerIndex(player)];
+        table[move] += remaining * remaining;
+        while (table[move] > HISTORYLIMIT){
+          //age the table so history never outweighs killers, more than
+          //once if a deep cutoff on a big board took it far over
+          for (int k = 0; k < table.length; k++){
+            table[k] /= 2;
+          }
+        }
+      }
+    }
+
+    //---------Private methods ------------
+
+    private int squareRank(int row, int col){
+      //the number of lines of WINLENGTH squares that could pass through
+      //(row, col), on 3x3 centre 4, corners 3, edges 2
+      int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+      int lines = 0;
+      for (int[] d : directions){
+        for (int start = 0; start < WINLENGTH; start++){
+          int r0 = row - start * d[0], c0 = col - start * d[1];
+          int r1 = r0 + (WINLENGTH - 1) * d[0], c1 = c0 + (WINLENGTH - 1) * d[1];
+          if (onBoard(r0, c0) && onBoard(r1, c1)){
+            lines++;
+          }
+        }
+      }
+      return lines;
+    }
+
+    private boolean onBoard(int row, int col){
+      return row >= 0 && row < SIZE && col >= 0 && col < SIZE;
+    }
+
+    private int playerIndex(Type player){
+      if (player == Type.X){
+        return 0;
+      }
+      return 1;
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        MoveOrdering program = MoveOrdering.standard();
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea MoveOrdering");
+
+        testSquareRank();
+        testStaticOrder();
+        testNoOrdering();
+        testKillersAndHistory();
+        testHistoryLimit();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testSquareRank(){
+      assert( squareRank(1, 1) == 4 );
+      assert( squareRank(0, 0) == 3 );
+      assert( squareRank(2, 2) == 3 );
+      assert( squareRank(0, 1) == 2 );
+      assert( squareRank(2, 1) == 2 );
+      //4 in a row on 4x4 only fits along the edges and two diagonals
+      setSize(4, 4);
+      assert( squareRank(0, 0) == 3 );
+      assert( squareRank(0, 1) == 2 );
+      assert( squareRank(1, 1) == 3 );
+      setSize(3, 3);
+    }
+
+    private void testStaticOrder(){
+      int[] moves = new int[SIZE * SIZE];
+      Board b = new Board();
+      clear();
+      assert( orderMoves(b, -1, Type.X, -1, moves) == 9 );
+      assert( moves[0] == 4 );
+      assert( moves[1] == 0 && moves[2] == 2 && moves[3] == 6 && moves[4] == 8 );
+      assert( moves[5] == 1 && moves[8] == 7 );
+
+      b.setBoard("xeeeoeeee");
+      assert( orderMoves(b, -1, Type.X, -1, moves) == 7 );
+      assert( moves[0] == 2 );
+    }
+
+    private void testNoOrdering(){
+      int[] moves = new int[SIZE * SIZE];
+      MoveOrdering plain = MoveOrdering.none();
+      Board b = new Board();
+      b.setBoard("xeeeoeeee");
+      assert( plain.orderMoves(b, 0, Type.X, -1, moves) == 7 );
+      assert( moves[0] == 1 && moves[1] == 2 && moves[6] == 8 );
+      MoveOrdering copy = plain.copy();
+      assert( copy.orderMoves(b, 0, Type.X, -1, moves) == 7 );
+      assert( moves[0] == 1 && moves[1] == 2 && moves[6] == 8 );
+    }
+
+    private void testKillersAndHistory(){
+      int[] moves = new int[SIZE * SIZE];
+      Board b = new Board();
+      clear();
+      recordCutoff(2, Type.O, 7, 3);
+      assert( orderMoves(b, 2, Type.O, -1, moves) == 9 );
+      assert( moves[0] == 7 );
+      //killers belong to a depth, the root ignores them
+      orderMoves(b, -1, Type.O, -1, moves);
+      assert( moves[0] == 4 );
+      clear();
+      orderMoves(b, 2, Type.O, -1, moves);
+      assert( moves[0] == 4 );
+      //a hash move beats everything
+      recordCutoff(2, Type.O, 7, 3);
+      orderMoves(b, 2, Type.O, 5, moves);
+      assert( moves[0] == 5 && moves[1] == 7 );
+    }
+
+    private void testHistoryLimit(){
+      //however many cutoffs a square has, a killer still comes first
+      int[] moves = new int[26 * 26];
+      MoveOrdering big = MoveOrdering.standard();
+      big.setSize(26, 5);
+      Board b = new Board(26, 5);
+      for (int n = 0; n < 1000; n++){
+        big.recordCutoff(3, Type.X, 0, 26 * 26);
+      }
+      big.recordCutoff(2, Type.X, 1, 1);
+      big.recordCutoff(2, Type.X, 2, 1);
+      big.orderMoves(b, 2, Type.X, -1, moves);
+      assert( moves[0] == 2 && moves[1] == 1 && moves[2] == 0 );
+    }
+}
@@ -0,0 +1,9 @@
+/* Something that picks moves: the Minimax search, the solved game in a
+   LookupTable, or a RandomPlayer. Lets an Arena play any of them against
+   any other. The move is given in the "b3" form Board.makeMove takes, or
+   "" if there is none to give. Minimax and LookupTable can be called from
+   several threads at once; RandomPlayer cannot */
+
+interface MoveProvider {
+    String chooseMove(Board board, Type player);
+}
@@ -0,0 +1,302 @@
+/* The first few moves of the game worked out in advance. For every
+   position up to a number of moves in, with X moving first, the book
+   holds each move that keeps the best outcome, with a weight, and picks
+   one of them at random by weight. So the computer opens differently from
+   game to game without ever playing a worse move, and the early moves,
+   which take the longest to search, cost a single map lookup.
+
+   Among the moves that draw, a move weighs 1 more for each reply that
+   would lose to it, so openings that set traps come up more often. A
+   move that wins is only kept if it wins as quickly as any.
+
+   Positions are keyed by the Board's canonical hash and the player to
+   move, so the 8 rotations and reflections of a position share an entry,
+   with its moves stored in the canonical orientation. Moves are drawn
+   with ThreadLocalRandom, so many games can use one book at once without
+   waiting on each other.
+
+   A book is built from a Minimax that can search the positions to the
+   end. It uses the Minimax's solved game, tablebase and transposition
+   table, but not the Minimax itself. standard() is the book for 3x3,
+   built from the solved game */
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+class OpeningBook implements MoveProvider {
+    private static OpeningBook standard = null;
+    private final int size;
+    private final int winLength;
+    //canonical key to pairs of canonical move and running total of weights
+    private final Map<Long, int[]> entries = new HashMap<>();
+
+    private OpeningBook(int size, int winLength){
+      this.size = size;
+      this.winLength = winLength;
+    }
+
+    static synchronized OpeningBook standard(){
+      //the first 4 moves of the 3x3 game, built once and shared
+      if (standard == null){
+        Minimax solved = new Minimax();
+        solved.setLookupTable(LookupTable.solve());
+        standard = build(3, 3, 4, solved);
+      }
+      return standard;
+    }
+
+    static OpeningBook build(int size, int winLength, int moves, Minimax engine){
+      //the book for the first moves of games on a size x size board,
+      //with the positions scored by a search using engine's tables
+      Minimax scorer = new Minimax();
+      scorer.setLookupTable(engine.getLookupTable());
+      scorer.setTablebase(engine.getTablebase());
+      scorer.setTranspositionTable(engine.getTranspositionTable());
+      OpeningBook book = new OpeningBook(size, winLength);
+      Board board = new Board(size, winLength);
+      book.add(board, Type.X, moves, scorer);
+      return book;
+    }
+
+    boolean contains(Board board, Type toMove){
+      return covers(board) && entries.containsKey(key(board, toMove));
+    }
+
+    int getMove(Board board, Type toMove){
+      //one of the book moves for toMove, drawn by weight, or -1 if the
+      //position is not in the book
+      if (!covers(board)){
+        return -1;
+      }
+      int[] moves = entries.get(key(board, toMove));
+      if (moves == null){
+        return -1;
+      }
+      int pick = ThreadLocalRandom.current().nextInt(moves[moves.length - 1]);
+      int n = 0;
+      while (moves[n + 1] <= pick){
+        n += 2;
+      }
+      return board.getSymmetry().unmap(board.getCanonicalTransform(), moves[n]);
+    }
+
+    @Override
+    public String chooseMove(Board board, Type player){
+      int move = getMove(board, player);
+      if (move < 0){
+        return "";
+      }
+      return (char)('a' + move / size) + Integer.toString(move % size + 1);
+    }
+
+    int positions(){
+      return entries.size();
+    }
+
+    //---------Private methods ------------
+
+    private boolean covers(Board board){
+      return board.getSize() == size && board.getWinLength() == winLength;
+    }
+
+    private static long key(Board board, Type toMove){
+      if (toMove == Type.X){
+        return board.getCanonicalHash() ^ TranspositionTable.SIDE;
+      }
+      return board.getCanonicalHash();
+    }
+
+    private void add(Board board, Type toMove, int moves, Minimax scorer){
+      //enters the position and those after it, moves deep
+      if (moves == 0 || board.isGameOver() || entries.containsKey(key(board, toMove))){
+        return;
+      }
+      entries.put(key(board, toMove), bestMoves(board, toMove, scorer));
+      Type next = other(toMove);
+      for (int k = 0; k < size * size; k++){
+        if (board.getCell(k) == Type.Empty){
+          board.makeMove(k / size, k % size, toMove);
+          add(board, next, moves - 1, scorer);
+          board.undoMove(k / size, k % size);
+        }
+      }
+    }
+
+    private int[] bestMoves(Board board, Type toMove, Minimax scorer){
+      //the moves keeping the best outcome for toMove, with their weights
+      int cells = size * size;
+      int[] scores = new int[cells];
+      int best = Integer.MIN_VALUE;
+      for (int k = 0; k < cells; k++){
+        scores[k] = Integer.MIN_VALUE;
+        if (board.getCell(k) == Type.Empty){
+          board.makeMove(k / size, k % size, toMove);
+          scores[k] = score(board, other(toMove), scorer);
+          board.undoMove(k / size, k % size);
+          best = Math.max(best, scores[k]);
+        }
+      }
+      int transform = board.getCanonicalTransform();
+      Symmetry sym = board.getSymmetry();
+      int[] found = new int[2 * cells];
+      int count = 0;
+      int total = 0;
+      for (int k = 0; k < cells; k++){
+        if (scores[k] != best){
+          continue;
+        }
+        int weight = 1;
+        if (best == 0){
+          board.makeMove(k / size, k % size, toMove);
+          weight += traps(board, toMove, scorer);
+          board.undoMove(k / size, k % size);
+        }
+        total += weight;
+        found[count++] = sym.map(transform, k);
+        found[count++] = total;
+      }
+      return java.util.Arrays.copyOf(found, count);
+    }
+
+    private int score(Board board, Type toMove, Minimax scorer){
+      //for the player who just moved: a win is worth more the sooner it
+      //comes and a loss less, a draw is 0
+      int value;
+      int distance;
+      if (board.isGameOver()){
+        value = board.isTie() ? 0 : -1;
+        distance = 0;
+      } else {
+        scorer.setPlayingAs(toMove);
+        scorer.getBestMove(board);
+        value = scorer.getValue();
+        distance = scorer.getDistance();
+      }
+      if (value == 0){
+        return 0;
+      }
+      return value < 0 ? 1000 - distance : distance - 1000;
+    }
+
+    private int traps(Board board, Type mover, Minimax scorer){
+      //the replies to mover's last move that lose
+      int losing = 0;
+      Type replier = other(mover);
+      for (int k = 0; k < size * size; k++){
+        if (board.getCell(k) != Type.Empty){
+          continue;
+        }
+        board.makeMove(k / size, k % size, replier);
+        if (!board.isGameOver() && score(board, mover, scorer) < 0){
+          losing++;
+        }
+        board.undoMove(k / size, k % size);
+      }
+      return losing;
+    }
+
+    private static Type other(Type player){
+      return player == Type.X ? Type.O : Type.X;
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        OpeningBook program = standard();
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea OpeningBook");
+
+        testOptimal();
+        testVariety();
+        testWeights();
+        testCoverage();
+        testBigBoard();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testOptimal(){
+      //every book move keeps the outcome the solved game gives
+      LookupTable solved = LookupTable.solve();
+      Board b = new Board();
+      String[] positions = {"eeeeeeeee", "xeeeeeeee", "exeeeeeee", "eeeexeeee",
+                            "xoeeeeeee", "xeeeoeeee", "eeeexeeeo"};
+      for (String position : positions){
+        b.setBoard(position);
+        Type toMove = position.indexOf('x') >= 0 && position.indexOf('o') < 0 ? Type.O : Type.X;
+        assert( contains(b, toMove) );
+        int value = solved.getValue(b, toMove);
+        for (int n = 0; n < 50; n++){
+          int move = getMove(b, toMove);
+          assert( b.getCell(move) == Type.Empty );
+          Board after = b.cloneBoard();
+          after.makeMove(move / 3, move % 3, toMove);
+          int next = after.isGameOver() ? 0 : solved.getValue(after, other(toMove));
+          assert( Integer.signum(next) == Integer.signum(value) );
+        }
+      }
+      //the only move that holds a corner opening is the centre
+      b.setBoard("xeeeeeeee");
+      for (int n = 0; n < 20; n++){
+        assert( chooseMove(b, Type.O).equals("b2") );
+      }
+    }
+
+    private void testVariety(){
+      //the empty board is opened on every square in time, square 8 too
+      Board b = new Board();
+      boolean[] seen = new boolean[9];
+      for (int n = 0; n < 2000; n++){
+        seen[getMove(b, Type.X)] = true;
+      }
+      for (boolean s : seen){
+        assert( s );
+      }
+    }
+
+    private void testWeights(){
+      //a corner opening loses to all but one reply, the centre to none,
+      //so corners come up far more often
+      Board b = new Board();
+      int corners = 0;
+      int centre = 0;
+      for (int n = 0; n < 4000; n++){
+        int move = getMove(b, Type.X);
+        if (move == 4){ centre++; }
+        else if (move % 2 == 0){ corners++; }
+      }
+      assert( corners > 4 * centre );
+    }
+
+    private void testCoverage(){
+      //4 moves deep with X first, one entry per distinct position
+      assert( positions() == 1 + 3 + 12 + 38 );
+      Board b = new Board();
+      b.setBoard("xoxoeeeee");
+      assert( !contains(b, Type.X) );
+      b.setBoard("xoxeeeeee");
+      assert( contains(b, Type.O) );
+      assert( !contains(new Board(), Type.O) );
+      assert( getMove(new Board(4, 4), Type.X) == -1 );
+      assert( chooseMove(new Board(4, 4), Type.X).equals("") );
+      assert( standard() == this );
+    }
+
+    private void testBigBoard(){
+      //a book for 4x4 from a searching Minimax, one move deep
+      OpeningBook small = build(4, 3, 1, new Minimax());
+      Board b = new Board(4, 3);
+      assert( small.positions() == 1 );
+      int move = small.getMove(b, Type.X);
+      assert( move >= 0 && move < 16 );
+      b.makeMove(move / 4, move % 4, Type.X);
+      assert( !small.contains(b, Type.O) );
+    }
+}
@@ -1,6 +1,16 @@
 /* Plays the game Noughts and Crosses with user input. Prints the board
    With no arguments, run the unit tests. Can play as 1 or 2 players
    If player inputs invalid move, they will be prompted for a valid move
+   The board size and the number in a row needed to win can follow the
+   number of players, eg "java Oxo 1 4 4" for 4 in a row on 4x4
+   "java Oxo solve" saves the solved game to oxo.sol, which later games
+   load at start up so the computer never has to search
+   "java Oxo tablebase 4 4" solves 4 in a row on 4x4 backwards and saves
+   it to oxo-4-4.tb, which games of that size load in the same way
+   "java Oxo analyze positions.txt" prints the best move, value and moves
+   left for each board in the file, one per line
+   "java Oxo serve 4004" hosts games over TCP, see GameServer
+   Games played are added to oxo.games, see GameRecord
    */
 
 class Oxo {
@@ -10,7 +20,15 @@ class Oxo {
     private Board board = new Board();
     private Display display = new Display();
     private Minimax minimax = new Minimax();
+    private Ponder ponder = null;
     private String move;
+    private java.nio.file.Path solution = java.nio.file.Paths.get("oxo.sol");
+    private java.nio.file.Path gameLog = java.nio.file.Paths.get("oxo.games");
+    private GameRecord.Writer games = null;
+    //milliseconds the computer may think for each move
+    private static final long THINKING_TIME = 3000;
+    //moves deep the opening book goes on boards with a tablebase
+    private static final int BOOK_MOVES = 4;
 
     public static void main(String[] args) {
         Oxo program = new Oxo();
@@ -22,7 +40,11 @@ class Oxo {
         boolean testing = false;
         assert(testing = true);
         if (args.length == 0 && testing) test();
-        else if (args.length == 1) play(args);
+        else if (args.length == 1 && args[0].equals("solve")) solve();
+        else if (args.length == 3 && args[0].equals("tablebase")) tablebase(args[1], args[2]);
+        else if (args.length == 2 && args[0].equals("analyze")) analyze(args[1]);
+        else if (args.length == 2 && args[0].equals("serve")) serve(args[1]);
+        else if (args.length >= 1 && args.length <= 3) play(args);
         else usage();
     }
 
@@ -30,13 +52,42 @@ class Oxo {
     void usage() {
         System.err.println("Use:");
         System.err.println("  java -ea Oxo");
-        System.err.println("  java Oxo number_of_players");
+        System.err.println("  java Oxo number_of_players [board_size [win_length]]");
+        System.err.println("  java Oxo solve");
+        System.err.println("  java Oxo tablebase board_size win_length");
+        System.err.println("  java Oxo analyze positions_file");
+        System.err.println("  java Oxo serve port");
         System.exit(1);
     }
 
     void play(String[] args){
        int num_players = convertInt(args[0].charAt(0));
-       display.Intro();
+       try {
+         int size = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+         int winLength = args.length > 2 ? Integer.parseInt(args[2]) : Math.min(size, 3);
+         board = new Board(size, winLength);
+       } catch (IllegalArgumentException e){
+         System.out.println("\n" + e.getMessage());
+         usage();
+       }
+       //without a usable solution file the computer searches each move
+       minimax.loadSolution(solution);
+       minimax.setTablebase(Tablebase.read(tablebasePath(board.getSize(), board.getWinLength())));
+       //the early moves come from a book where the game can be solved
+       if (board.getSize() == 3 && board.getWinLength() == 3){
+         minimax.setOpeningBook(OpeningBook.standard());
+       } else if (minimax.getTablebase() != null){
+         minimax.setOpeningBook(OpeningBook.build(board.getSize(), board.getWinLength(),
+                                                  BOOK_MOVES, minimax));
+       }
+       minimax.setPool(java.util.concurrent.ForkJoinPool.commonPool());
+       ponder = new Ponder(minimax, THINKING_TIME);
+       try {
+         games = new GameRecord.Writer(gameLog);
+       } catch (java.io.IOException e){
+         System.err.println("Not saving games: " + e.getMessage());
+       }
+       display.Intro(board.getSize(), board.getWinLength());
 
        if (num_players == 1){
          players_1();
@@ -46,23 +97,90 @@ class Oxo {
          System.out.println("\nYou must pick either 1 or 2 players");
          System.exit(1);
        }
+       closeGames();
+    }
+
+    //writes the solution file used by play()
+    void solve(){
+      try {
+        SolutionFile.write(LookupTable.solve(), solution);
+        System.out.println("Saved " + solution);
+      } catch (java.io.IOException e){
+        System.err.println("Could not save " + solution + ": " + e.getMessage());
+        System.exit(1);
+      }
+    }
+
+    //writes the tablebase used by play() on boards of that size
+    void tablebase(String size, String winLength){
+      try {
+        int n = Integer.parseInt(size);
+        int k = Integer.parseInt(winLength);
+        java.nio.file.Path path = tablebasePath(n, k);
+        Tablebase.solve(n, k).write(path);
+        System.out.println("Saved " + path);
+      } catch (IllegalArgumentException e){
+        System.err.println(e.getMessage());
+        usage();
+      } catch (java.io.IOException e){
+        System.err.println("Could not save the tablebase: " + e.getMessage());
+        System.exit(1);
+      }
+    }
+
+    private static java.nio.file.Path tablebasePath(int size, int winLength){
+      return java.nio.file.Paths.get("oxo-" + size + "-" + winLength + ".tb");
+    }
+
+    //scores every board in a file, see BatchAnalyzer
+    void analyze(String file){
+      int threads = Runtime.getRuntime().availableProcessors();
+      try (BatchAnalyzer analyzer = new BatchAnalyzer(threads)){
+        analyzer.analyze(java.nio.file.Paths.get(file), System.out);
+      } catch (java.io.IOException e){
+        System.err.println("Could not read " + file + ": " + e.getMessage());
+        System.exit(1);
+      }
+    }
+
+    //runs a GameServer until the process is stopped
+    void serve(String port){
+      GameServer server = new GameServer(GameServer.defaultEngine());
+      try {
+        server.start(Integer.parseInt(port));
+        System.out.println("Serving games on port " + server.getPort());
+      } catch (NumberFormatException e){
+        usage();
+      } catch (java.io.IOException e){
+        System.err.println("Could not listen on port " + port + ": " + e.getMessage());
+        System.exit(1);
+      }
     }
 
     //1 player allows user to play against the Minimax AI
     private void players_1(){
       board.initBoard();
+      GameRecord record = newRecord(true);
       while (!board.isGameOver()){
          currentPlayer = board.getCurrentPlayer();
          if (board.getCurrentPlayerType().equals(minimax.getPlayingAs())){
-            //CP moves
-            move = minimax.getBestMove(board);
+            //CP moves, at once if it was worked out while the human thought
+            move = ponder.answer(board);
+            if (move == null){
+              move = minimax.getBestMove(board, THINKING_TIME);
+            }
          } else {
-           //human moves
+           //human moves, while the CP ponders the replies
+            ponder.start(board, board.getCurrentPlayerType());
             move = display.getMove(currentPlayer);
          }
-         board.makeMove(move);
+         if (board.makeMove(move)){
+           record.addMove(move);
+         }
          display.drawBoard(board.getBoard());
       }
+      ponder.close();
+      saveGame(record);
       newGame();
     }
 
@@ -70,15 +188,45 @@ class Oxo {
     private void players_2(){
       String move;
       board.initBoard();
+      GameRecord record = newRecord(false);
       while (!board.isGameOver()){
          currentPlayer = board.getCurrentPlayer();
          move = display.getMove(currentPlayer);
-         board.makeMove(move);
+         if (board.makeMove(move)){
+           record.addMove(move);
+         }
          display.drawBoard(board.getBoard());
       }
+      saveGame(record);
       newGame();
     }
 
+    private GameRecord newRecord(boolean computerPlays){
+      Type computer = minimax.getPlayingAs();
+      int x = computerPlays && computer == Type.X ? GameRecord.MINIMAX : GameRecord.HUMAN;
+      int o = computerPlays && computer == Type.O ? GameRecord.MINIMAX : GameRecord.HUMAN;
+      return new GameRecord(board.getSize(), board.getWinLength(), x, o);
+    }
+
+    private void saveGame(GameRecord record){
+      //hands the game to the writer thread, so never waits on the disk
+      record.finish(board);
+      if (games != null){
+        games.add(record);
+      }
+    }
+
+    private void closeGames(){
+      if (games == null){
+        return;
+      }
+      try {
+        games.close();
+      } catch (java.io.IOException e){
+        System.err.println("Could not save games: " + e.getMessage());
+      }
+    }
+
     private int convertInt(char c){
       try {
          int i =  Character.getNumericValue(c);
@@ -0,0 +1,176 @@
+/* The usual Evaluator. Every line a player could still complete, one with
+   some of their pieces and none of the other player's, is worth points by
+   how many pieces are in it, from tables made once for every line length.
+   Each piece more in a line is worth four times as much, so one line
+   near completion counts for more than several just started.
+
+   The Board keeps the number of open lines with each count of pieces up
+   to date as moves are made and undone, so a score takes a few array
+   reads however big the board is, and no line is looked at.
+
+   Threats, lines a single piece short, are scored apart. The player to
+   move who has one wins on the next move. An opponent with threats on
+   two different squares has a fork, which cannot be blocked. Both are
+   scored just inside the LIMIT. Only when the opponent has two or more
+   threats are the lines looked at, to see if they share a square */
+
+class PatternEvaluator implements Evaluator {
+    //the player to move wins next move
+    static final int WIN_NEXT = LIMIT - 1;
+    //the other player has two threats, which cannot both be blocked
+    static final int FORKED = -(LIMIT - 2);
+    private static final int MAX_WEIGHT = 256;
+    //built before any search, so it is read without locking
+    private static final int[][] byLength = new int[Board.MAXSIZE + 1][];
+    static {
+      for (int k = 1; k <= Board.MAXSIZE; k++){
+        byLength[k] = new int[k + 1];
+        int weight = 1;
+        for (int n = 1; n <= k; n++){
+          byLength[k][n] = weight;
+          weight = Math.min(MAX_WEIGHT, weight * 4);
+        }
+      }
+    }
+    private boolean threats = true;
+
+    PatternEvaluator(){
+    }
+
+    PatternEvaluator(boolean threats){
+      //without threats only the table is used, for comparing the two
+      this.threats = threats;
+    }
+
+    @Override
+    public int evaluate(Board board, Type side){
+      int k = board.getWinLength();
+      Type other = side == Type.X ? Type.O : Type.X;
+      if (threats && k > 1){
+        if (board.countOpenLines(side, k - 1) > 0){
+          return WIN_NEXT;
+        }
+        if (board.countOpenLines(other, k - 1) > 1 && threatSquares(board, other) > 1){
+          return FORKED;
+        }
+      }
+      int[] weights = weights(k);
+      int score = 0;
+      for (int n = 1; n < k; n++){
+        score += weights[n] * (board.countOpenLines(side, n) - board.countOpenLines(other, n));
+      }
+      return Math.max(-LIMIT, Math.min(LIMIT, score));
+    }
+
+    static int[] weights(int winLength){
+      //points for an open line by the pieces in it, one table per length
+      return byLength[winLength];
+    }
+
+    //---------Private methods ------------
+
+    private static int threatSquares(Board board, Type player){
+      //the squares that would complete a line for player, counting no
+      //further than 2
+      Lines lines = board.getLines();
+      Type other = player == Type.X ? Type.O : Type.X;
+      int k = board.getWinLength();
+      int first = -1;
+      for (int line = 0; line < lines.count(); line++){
+        if (board.getLineCount(player, line) != k - 1 || board.getLineCount(other, line) != 0){
+          continue;
+        }
+        for (int cell : lines.cells(line)){
+          if (board.getCell(cell) == Type.Empty && cell != first){
+            if (first >= 0){
+              return 2;
+            }
+            first = cell;
+          }
+        }
+      }
+      return first >= 0 ? 1 : 0;
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        PatternEvaluator program = new PatternEvaluator();
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea PatternEvaluator");
+
+        testWeights();
+        testBalanced();
+        testThreats();
+        testFork();
+        testBigBoard();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testWeights(){
+      assert( java.util.Arrays.equals(weights(3), new int[]{0, 1, 4, 16}) );
+      assert( weights(26)[26] == MAX_WEIGHT );
+      assert( weights(4) == weights(4) );
+    }
+
+    private void testBalanced(){
+      //the empty board is even, and a score for one side is the other's
+      //score negated
+      Board b = new Board();
+      assert( evaluate(b, Type.X) == 0 && evaluate(b, Type.O) == 0 );
+      b.setBoard("eeeexeeee");
+      assert( evaluate(b, Type.O) < 0 );
+      assert( evaluate(b, Type.X) == -evaluate(b, Type.O) );
+      //the centre is worth more than a corner, a corner more than an edge
+      Board corner = new Board();
+      corner.setBoard("xeeeeeeee");
+      Board edge = new Board();
+      edge.setBoard("exeeeeeee");
+      assert( evaluate(b, Type.X) > evaluate(corner, Type.X) );
+      assert( evaluate(corner, Type.X) > evaluate(edge, Type.X) );
+    }
+
+    private void testThreats(){
+      //x x e   X to move wins on a3. O to move must block it, which
+      //o e e   the score does not know, so it is only a line worth more
+      //e e e
+      Board b = new Board();
+      b.setBoard("xxeoeeeee");
+      assert( evaluate(b, Type.X) == WIN_NEXT );
+      assert( evaluate(b, Type.O) < 0 && evaluate(b, Type.O) > FORKED );
+      PatternEvaluator plain = new PatternEvaluator(false);
+      assert( plain.evaluate(b, Type.X) < WIN_NEXT );
+    }
+
+    private void testFork(){
+      //x x e   X threatens a3 and c1, and O can only block one
+      //x o e
+      //e e o
+      Board b = new Board();
+      b.setBoard("xxexoeeeo");
+      assert( evaluate(b, Type.O) == FORKED );
+      //x x e   two threats on the same square, a3, are one threat
+      //e o x
+      //o e x
+      b.setBoard("xxeeoxoex");
+      assert( b.countOpenLines(Type.X, 2) == 2 );
+      assert( threatSquares(b, Type.X) == 1 );
+      assert( evaluate(b, Type.O) != FORKED );
+    }
+
+    private void testBigBoard(){
+      //scores stay inside the limit however many lines there are
+      Board b = new Board(26, 5);
+      for (int k = 0; k < 26 * 26; k += 3){
+        b.makeMove(k / 26, k % 26, Type.X);
+      }
+      assert( evaluate(b, Type.X) <= LIMIT && evaluate(b, Type.O) >= -LIMIT );
+    }
+}
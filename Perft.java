@@ -0,0 +1,289 @@
+/* Counts the game tree below a position, as chess programs do with perft,
+   so that a change to Board or to how moves are made can be checked
+   against numbers known to be right before anything is built on it.
+
+   For each ply up to the depth asked for it counts the positions reached
+   (every sequence of that many legal moves, stopping when a game ends),
+   and of those the games won by X, won by O and drawn at that ply. From
+   the empty 3x3 board, with full depth, there are 255168 games: 131184
+   won by X, 77904 won by O and 46080 drawn.
+
+   With more than one thread the positions a few plies down are shared
+   out between threads, each walking its subtrees on a board of its own.
+   The time taken and the positions per second are kept as well, so a run
+   is also a measure of how fast moves are made and taken back.
+
+     java Perft                           3x3 to the end, checked
+     java Perft size win depth [threads]  any board from empty
+     java -ea Perft                       runs the tests
+
+   Run without -ea for real numbers, as asserts slow the code down */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+class Perft {
+    //positions at each ply from the empty 3x3 board
+    static final long[] THREE_BY_THREE = {
+      1, 9, 72, 504, 3024, 15120, 54720, 148176, 200448, 127872
+    };
+    //games ending at each ply from the empty 3x3 board
+    static final long[] THREE_BY_THREE_ENDS = {
+      0, 0, 0, 0, 0, 1440, 5328, 47952, 72576, 127872
+    };
+    //the plies walked before the tree is shared out between threads
+    private static final int SPLIT = 2;
+
+    //what was counted, by ply from the start position (ply 0)
+    static class Result {
+      long[] nodes;
+      long[] xWins;
+      long[] oWins;
+      long[] draws;
+      long elapsed;
+
+      Result(int depth){
+        nodes = new long[depth + 1];
+        xWins = new long[depth + 1];
+        oWins = new long[depth + 1];
+        draws = new long[depth + 1];
+      }
+
+      long totalNodes(){
+        return sum(nodes);
+      }
+
+      long games(){
+        return sum(xWins) + sum(oWins) + sum(draws);
+      }
+
+      double nodesPerSecond(){
+        return elapsed == 0 ? 0 : totalNodes() * 1e9 / elapsed;
+      }
+
+      void add(Result other){
+        for (int ply = 0; ply < nodes.length; ply++){
+          nodes[ply] += other.nodes[ply];
+          xWins[ply] += other.xWins[ply];
+          oWins[ply] += other.oWins[ply];
+          draws[ply] += other.draws[ply];
+        }
+      }
+
+      private static long sum(long[] counts){
+        long total = 0;
+        for (long n : counts){
+          total += n;
+        }
+        return total;
+      }
+    }
+
+    public static void main(String[] args) {
+        Perft program = new Perft();
+        program.run(args);
+    }
+
+    // Deal with the command line arguments
+    void run(String[] args) {
+        boolean testing = false;
+        assert(testing = true);
+        if (args.length == 0 && testing) test();
+        else if (args.length == 0) report(3, 3, 9, Runtime.getRuntime().availableProcessors());
+        else if (args.length == 3 || args.length == 4) {
+          try {
+            int threads = args.length == 4 ? Integer.parseInt(args[3])
+                                           : Runtime.getRuntime().availableProcessors();
+            report(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+                   Integer.parseInt(args[2]), threads);
+          } catch (IllegalArgumentException e){
+            System.err.println(e.getMessage());
+          }
+        }
+        else System.err.println("Use: java Perft [board_size win_length depth [threads]]");
+    }
+
+    static Result count(Board start, Type toMove, int depth){
+      return count(start, toMove, depth, 1);
+    }
+
+    static Result count(Board start, Type toMove, int depth, int threads){
+      //counts the tree below start, toMove to play, down to depth plies.
+      //start is not changed
+      if (depth < 0 || threads < 1){
+        throw new IllegalArgumentException("Cannot count " + depth + " plies on "
+                                           + threads + " threads");
+      }
+      Result result = new Result(depth);
+      Board board = start.cloneBoard();
+      long begin = System.nanoTime();
+      result.nodes[0] = 1;
+      if (depth == 0 || start.isGameOver()){
+        //nothing to walk
+      } else if (threads == 1 || depth <= SPLIT){
+        walk(board, toMove, 0, depth, result, null);
+      } else {
+        List<Board> subtrees = new ArrayList<>();
+        walk(board, toMove, 0, depth, result, subtrees);
+        //a subtree starts SPLIT plies down, so the side to move is known
+        Type next = SPLIT % 2 == 0 ? toMove : other(toMove);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+          List<Future<Result>> parts = new ArrayList<>();
+          for (Board subtree : subtrees){
+            parts.add(pool.submit(() -> {
+              Result part = new Result(depth);
+              walk(subtree, next, SPLIT, depth, part, null);
+              return part;
+            }));
+          }
+          for (Future<Result> part : parts){
+            result.add(part.get());
+          }
+        } catch (InterruptedException e){
+          Thread.currentThread().interrupt();
+          throw new CancellationException("interrupted");
+        } catch (ExecutionException e){
+          throw new IllegalStateException(e.getCause());
+        } finally {
+          pool.shutdownNow();
+        }
+      }
+      result.elapsed = System.nanoTime() - begin;
+      return result;
+    }
+
+    static boolean matchesThreeByThree(Result r){
+      //true if r agrees with the known counts from the empty 3x3 board
+      for (int ply = 0; ply < r.nodes.length && ply < THREE_BY_THREE.length; ply++){
+        long ends = r.xWins[ply] + r.oWins[ply] + r.draws[ply];
+        if (r.nodes[ply] != THREE_BY_THREE[ply] || ends != THREE_BY_THREE_ENDS[ply]){
+          return false;
+        }
+      }
+      return true;
+    }
+
+    //---------Private methods ------------
+
+    private static void walk(Board board, Type toMove, int ply, int depth,
+                             Result result, List<Board> subtrees){
+      //with subtrees given, positions SPLIT plies down are kept there for
+      //the threads instead of being walked
+      if (subtrees != null && ply == SPLIT){
+        subtrees.add(board.cloneBoard());
+        return;
+      }
+      int size = board.getSize();
+      int cells = size * size;
+      Type next = other(toMove);
+      for (int k = 0; k < cells; k++){
+        if (board.getCell(k) != Type.Empty){
+          continue;
+        }
+        int row = k / size, col = k % size;
+        board.makeMove(row, col, toMove);
+        result.nodes[ply + 1]++;
+        if (board.isGameOver()){
+          Type winner = board.getWinnerType();
+          if (winner == Type.X) result.xWins[ply + 1]++;
+          else if (winner == Type.O) result.oWins[ply + 1]++;
+          else result.draws[ply + 1]++;
+        } else if (ply + 1 < depth){
+          walk(board, next, ply + 1, depth, result, subtrees);
+        }
+        board.undoMove(row, col);
+      }
+    }
+
+    private static Type other(Type player){
+      return player == Type.X ? Type.O : Type.X;
+    }
+
+    private void report(int size, int winLength, int depth, int threads){
+      Board board = new Board(size, winLength);
+      Result r = count(board, Type.X, depth, threads);
+      System.out.printf("%5s %14s %14s %14s %14s%n", "ply", "positions", "X wins",
+                        "O wins", "draws");
+      for (int ply = 1; ply <= depth; ply++){
+        System.out.printf("%5d %14d %14d %14d %14d%n", ply, r.nodes[ply],
+                          r.xWins[ply], r.oWins[ply], r.draws[ply]);
+      }
+      System.out.printf("%5s %14d %14d %14d %14d%n", "all", r.totalNodes(),
+                        Result.sum(r.xWins), Result.sum(r.oWins), Result.sum(r.draws));
+      System.out.printf("%d games, %.3f s on %d threads, %.0f positions/s%n",
+                        r.games(), r.elapsed / 1e9, threads, r.nodesPerSecond());
+      if (size == 3 && winLength == 3){
+        System.out.println(matchesThreeByThree(r) ? "Matches the known counts"
+                                                  : "DOES NOT MATCH the known counts");
+      }
+    }
+
+    // ---------- Testing -----------
+    // Run the tests
+    void test() {
+        testThreeByThree();
+        testThreads();
+        testShallow();
+        testFromPosition();
+        testBigBoard();
+        System.out.println("All tests pass");
+    }
+
+    void testThreeByThree(){
+      Result r = count(new Board(), Type.X, 9);
+      assert( matchesThreeByThree(r) );
+      assert( r.games() == 255168 );
+      assert( Result.sum(r.xWins) == 131184 );
+      assert( Result.sum(r.oWins) == 77904 );
+      assert( Result.sum(r.draws) == 46080 );
+      assert( r.totalNodes() == 549946 );
+      assert( r.nodesPerSecond() > 0 );
+    }
+
+    void testThreads(){
+      //the same counts however the tree is shared out
+      Board b = new Board(4, 3);
+      Result one = count(b, Type.X, 6);
+      for (int threads : new int[]{2, 4}){
+        Result many = count(b, Type.X, 6, threads);
+        assert( Arrays.equals(one.nodes, many.nodes) );
+        assert( Arrays.equals(one.xWins, many.xWins) );
+        assert( Arrays.equals(one.oWins, many.oWins) );
+        assert( Arrays.equals(one.draws, many.draws) );
+      }
+      assert( matchesThreeByThree(count(new Board(), Type.X, 9, 3)) );
+    }
+
+    void testShallow(){
+      //a shallow count stops at depth and leaves the board as it was
+      Board b = new Board();
+      Result r = count(b, Type.X, 4);
+      assert( r.nodes.length == 5 && r.nodes[4] == 3024 );
+      assert( r.games() == 0 );
+      assert( matchesThreeByThree(r) );
+      assert( count(b, Type.X, 0).totalNodes() == 1 );
+      assert( b.isEmpty() );
+    }
+
+    void testFromPosition(){
+      //x o x
+      //o o x   X to play: c3 wins at once, c1 and c2 play on
+      //e e e
+      Board b = new Board();
+      b.setBoard("xoxooxeee");
+      Result r = count(b, Type.X, 9);
+      assert( Arrays.equals(r.nodes, new long[]{1, 3, 4, 3, 0, 0, 0, 0, 0, 0}) );
+      assert( r.xWins[1] == 1 && r.oWins[2] == 1 && r.xWins[3] == 1 );
+      assert( r.draws[3] == 2 && r.games() == 5 );
+      assert( b.getBoard().equals("xoxooxeee") );
+    }
+
+    void testBigBoard(){
+      //nothing can end in the first plies, so every ordering counts
+      Board b = new Board(7, 4);
+      Result r = count(b, Type.X, 3, 2);
+      assert( r.nodes[3] == 49L * 48 * 47 );
+      assert( r.games() == 0 );
+    }
+}
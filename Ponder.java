@@ -0,0 +1,273 @@
+/* Thinks on the human's time. While the human decides on a move, a thread
+   in the background works out the computer's answer to the replies they
+   are likely to make and keeps the answers, so that when their move comes
+   the answer is often ready at once. Whatever is still running is stopped
+   as soon as the move arrives.
+
+   The reply the computer would make in the human's place is pondered
+   first. After it come all the other replies on boards of up to 16
+   squares, and on bigger boards only the squares next to a piece.
+
+   Pondering uses a copy of the Minimax that plays, with the same solved
+   game, tablebase, book, evaluator, depth limit and transposition table,
+   so its answers are the moves the player would choose, and a reply that
+   was not finished in time still leaves the table warmer for the real
+   search */
+
+import java.util.concurrent.ConcurrentHashMap;
+
+class Ponder implements AutoCloseable {
+    private static final int ALL_REPLIES = 16;
+    private Minimax engine;
+    private long timeBudget;
+    private Thread worker = null;
+    private String pondering = "";
+    private ConcurrentHashMap<String, String> answers = new ConcurrentHashMap<>();
+
+    Ponder(Minimax player, long timeBudget){
+      //timeBudget is the milliseconds spent on each reply, as for
+      //Minimax.getBestMove(board, timeBudget)
+      engine = player.copy();
+      this.timeBudget = timeBudget;
+    }
+
+    void start(Board board, Type human){
+      //ponders the replies of human to board until answer() or close().
+      //Starting again on the same position carries on where it was
+      String position = board.getBoard() + human;
+      if (position.equals(pondering)){
+        return;
+      }
+      stop();
+      answers.clear();
+      pondering = position;
+      Board copy = board.cloneBoard();
+      worker = new Thread(() -> ponder(copy, human), "oxo-ponder");
+      worker.setDaemon(true);
+      worker.start();
+    }
+
+    String answer(Board board){
+      //the computer's move in board, the position after the human's move,
+      //or null if it was not worked out in time. Stops pondering
+      stop();
+      pondering = "";
+      return answers.get(board.getBoard());
+    }
+
+    int getAnswerCount(){
+      return answers.size();
+    }
+
+    @Override
+    public void close(){
+      stop();
+    }
+
+    //---------Private methods ------------
+
+    private void ponder(Board position, Type human){
+      Type computer = human == Type.X ? Type.O : Type.X;
+      Board after = position.cloneBoard();
+      int size = position.getSize();
+      for (int k : likelyReplies(position, human)){
+        after.copyFrom(position);
+        after.makeMove(k / size, k % size, human);
+        if (after.isGameOver()){
+          continue;
+        }
+        engine.setPlayingAs(computer);
+        String move = engine.getBestMove(after, timeBudget);
+        if (Thread.currentThread().isInterrupted()){
+          //the search was cut short, so its move is only a guess
+          return;
+        }
+        answers.put(after.getBoard(), move);
+      }
+    }
+
+    private int[] likelyReplies(Board position, Type human){
+      int size = position.getSize();
+      int cells = size * size;
+      int[] replies = new int[cells];
+      int count = 0;
+      if (!position.isEmpty()){
+        engine.setPlayingAs(human);
+        String guess = engine.getBestMove(position, timeBudget);
+        if (Thread.currentThread().isInterrupted()){
+          return new int[0];
+        }
+        replies[count++] = (guess.charAt(0) - 'a') * size + Integer.parseInt(guess.substring(1)) - 1;
+      }
+      for (int k = 0; k < cells; k++){
+        if (position.getCell(k) == Type.Empty && (count == 0 || replies[0] != k)
+            && (cells <= ALL_REPLIES || nextToPiece(position, k))){
+          replies[count++] = k;
+        }
+      }
+      return java.util.Arrays.copyOf(replies, count);
+    }
+
+    private static boolean nextToPiece(Board position, int k){
+      int size = position.getSize();
+      int row = k / size;
+      int col = k % size;
+      for (int r = Math.max(0, row - 1); r <= Math.min(size - 1, row + 1); r++){
+        for (int c = Math.max(0, col - 1); c <= Math.min(size - 1, col + 1); c++){
+          if (position.getCell(r * size + c) != Type.Empty){
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    private void stop(){
+      //interrupts the worker, which Minimax notices within a few thousand
+      //nodes, and waits for it so the engine is free again
+      if (worker == null){
+        return;
+      }
+      worker.interrupt();
+      boolean interrupted = false;
+      while (worker.isAlive()){
+        try {
+          worker.join();
+        } catch (InterruptedException e){
+          interrupted = true;
+        }
+      }
+      if (interrupted){
+        Thread.currentThread().interrupt();
+      }
+      worker = null;
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        Minimax player = new Minimax();
+        player.setLookupTable(LookupTable.solve());
+        try (Ponder program = new Ponder(player, 1000)){
+          program.run();
+        }
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea Ponder");
+
+        testAllReplies();
+        testSamePosition();
+        testLikelyReplies();
+        testCancel();
+        testPlayerSettings();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testAllReplies(){
+      //on 3x3 every reply is answered, each as the solved game would
+      Board b = new Board();
+      b.setBoard("xeeeoeeee");
+      start(b, Type.X);
+      waitFor(7);
+      LookupTable solved = LookupTable.solve();
+      for (int k = 0; k < 9; k++){
+        if (b.getCell(k) != Type.Empty){
+          continue;
+        }
+        Board after = b.cloneBoard();
+        after.makeMove(k / 3, k % 3, Type.X);
+        int move = solved.getMove(after, Type.O);
+        assert( answers.get(after.getBoard())
+                  .equals((char)('a' + move / 3) + Integer.toString(move % 3 + 1)) );
+      }
+      b.makeMove("c3");
+      assert( answer(b) != null );
+      b.setBoard("xeeeoeeex");
+      assert( answer(b) != null );
+    }
+
+    private void testSamePosition(){
+      Board b = new Board();
+      b.setBoard("eeeeeeeee");
+      start(b, Type.X);
+      waitFor(9);
+      start(b, Type.X);
+      assert( getAnswerCount() == 9 );
+      b.makeMove("a1");
+      assert( answer(b).equals("b2") );
+    }
+
+    private void testLikelyReplies(){
+      //on a big board only the squares around the pieces are pondered
+      Board b = new Board(7, 4);
+      b.setBoard("eeeeeee" + "eeeeeee" + "eeeeeee" + "eeexeee"
+                 + "eeeeeee" + "eeeeeee" + "eeeeeee");
+      int[] replies = likelyReplies(b, Type.O);
+      assert( replies.length == 8 );
+      for (int k : replies){
+        assert( Math.abs(k / 7 - 3) <= 1 && Math.abs(k % 7 - 3) <= 1 && k != 24 );
+      }
+      Board small = new Board(4, 3);
+      small.setBoard("xeeeeeeeeeeeeeee");
+      assert( likelyReplies(small, Type.O).length == 15 );
+    }
+
+    private void testCancel(){
+      //the human's move stops a long search at once
+      Ponder slow = new Ponder(new Minimax(), 60000);
+      Board b = new Board(6, 4);
+      b.makeMove("c3");
+      slow.start(b, Type.O);
+      sleep(100);
+      b.makeMove("d4");
+      long start = System.nanoTime();
+      assert( slow.answer(b) == null );
+      assert( System.nanoTime() - start < 1000000000L );
+      assert( slow.worker == null );
+      slow.close();
+    }
+
+    private void testPlayerSettings(){
+      //the answers come from everything the player searches with, here
+      //an endgame table on 4x4
+      Tablebase endgame = Tablebase.solve(4, 4, 8);
+      Minimax player = new Minimax();
+      player.setTablebase(endgame);
+      player.setDepthLimit(2);
+      try (Ponder ponder = new Ponder(player, 1000)){
+        Board b = new Board(4, 4);
+        b.setBoard("xoxoxoxoeeeeeeee");
+        ponder.start(b, Type.X);
+        ponder.waitFor(8);
+        for (int k = 8; k < 16; k++){
+          Board after = b.cloneBoard();
+          after.makeMove(k / 4, k % 4, Type.X);
+          if (!after.isGameOver()){
+            assert( ponder.answers.get(after.getBoard())
+                      .equals(endgame.chooseMove(after, Type.O)) );
+          }
+        }
+      }
+    }
+
+    private void waitFor(int count){
+      long start = System.nanoTime();
+      while (getAnswerCount() < count){
+        assert( System.nanoTime() - start < 10000000000L );
+        sleep(1);
+      }
+    }
+
+    private static void sleep(long millis){
+      try {
+        Thread.sleep(millis);
+      } catch (InterruptedException e){
+        Thread.currentThread().interrupt();
+      }
+    }
+}
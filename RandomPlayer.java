@@ -0,0 +1,73 @@
+/* Plays a random empty square. Useful as a weak opponent to check that a
+   stronger player never loses, and to give an Arena some variety */
+
+import java.util.SplittableRandom;
+
+class RandomPlayer implements MoveProvider {
+    private SplittableRandom random;
+
+    RandomPlayer(long seed){
+      random = new SplittableRandom(seed);
+    }
+
+    @Override
+    public String chooseMove(Board board, Type player){
+      int size = board.getSize();
+      int empty = board.countEmpty();
+      if (empty == 0){
+        return "";
+      }
+      //the n'th empty square, counting from the top left
+      int n = random.nextInt(empty);
+      for (int k = 0; k < size * size; k++){
+        if (board.getCell(k) == Type.Empty && n-- == 0){
+          return (char)('a' + k / size) + Integer.toString(k % size + 1);
+        }
+      }
+      return "";
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        RandomPlayer program = new RandomPlayer(1);
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea RandomPlayer");
+
+        testLegal();
+        testSpread();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testLegal(){
+      Board b = new Board();
+      while (!b.isGameOver()){
+        assert( b.makeMove(chooseMove(b, b.getCurrentPlayerType())) );
+      }
+      b.setBoard("xoxoxoxox");
+      assert( chooseMove(b, Type.O).equals("") );
+      Board big = new Board(12, 5);
+      big.makeMove("a1");
+      String move = chooseMove(big, Type.O);
+      assert( !move.equals("a1") && big.makeMove(move) );
+    }
+
+    private void testSpread(){
+      //every empty square comes up
+      Board b = new Board();
+      b.setBoard("xeeeeeeeo");
+      java.util.Set<String> seen = new java.util.HashSet<>();
+      for (int n = 0; n < 1000; n++){
+        seen.add(chooseMove(b, Type.X));
+      }
+      assert( seen.size() == 7 );
+      assert( !seen.contains("a1") && !seen.contains("c3") );
+    }
+}
@@ -0,0 +1,254 @@
+/* Totals over many calls to Minimax.getBestMove, for watching the cost of
+   the computer's moves over time. Give one to Minimax.setMetrics and every
+   call adds its SearchStats here. Several Minimax objects on different
+   threads can share one SearchMetrics.
+
+   Counters are LongAdders so recording never blocks. Wall and cpu times
+   per call go into histograms with a bucket per power of two nanoseconds,
+   which is coarse but cheap and enough to see a latency regression.
+   report() gives the lot as text, and dumpEvery() prints it on a timer */
+
+import java.io.PrintStream;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+class SearchMetrics {
+    private LongAdder calls = new LongAdder();
+    private LongAdder nodes = new LongAdder();
+    private LongAdder leaves = new LongAdder();
+    private LongAdder cutoffs = new LongAdder();
+    private LongAdder tableHits = new LongAdder();
+    private LongAdder tableMisses = new LongAdder();
+    private Histogram wallTimes = new Histogram();
+    private Histogram cpuTimes = new Histogram();
+    private static ScheduledExecutorService timer = null;
+
+    //counts of values by their highest set bit
+    static class Histogram {
+        private LongAdder[] buckets = new LongAdder[64];
+
+        Histogram(){
+          for (int b = 0; b < buckets.length; b++){
+            buckets[b] = new LongAdder();
+          }
+        }
+
+        void record(long value){
+          buckets[bucket(value)].increment();
+        }
+
+        long count(){
+          long total = 0;
+          for (LongAdder b : buckets){
+            total += b.sum();
+          }
+          return total;
+        }
+
+        long percentile(double p){
+          //upper bound of the bucket holding the p'th percentile, p from
+          //0 to 100, or 0 if nothing has been recorded
+          long[] counts = new long[buckets.length];
+          long total = 0;
+          for (int b = 0; b < buckets.length; b++){
+            counts[b] = buckets[b].sum();
+            total += counts[b];
+          }
+          if (total == 0){
+            return 0;
+          }
+          long rank = (long) Math.ceil(p / 100 * total);
+          long seen = 0;
+          for (int b = 0; b < counts.length; b++){
+            seen += counts[b];
+            if (seen >= Math.max(rank, 1)){
+              return upperBound(b);
+            }
+          }
+          return Long.MAX_VALUE;
+        }
+
+        void clear(){
+          for (LongAdder b : buckets){
+            b.reset();
+          }
+        }
+
+        static int bucket(long value){
+          //0 and 1 in bucket 0, 2 and 3 in bucket 1, 4 to 7 in bucket 2..
+          if (value <= 1){
+            return 0;
+          }
+          return 63 - Long.numberOfLeadingZeros(value);
+        }
+
+        static long upperBound(int bucket){
+          if (bucket >= 62){
+            return Long.MAX_VALUE;
+          }
+          return (2L << bucket) - 1;
+        }
+    }
+
+    void record(SearchStats stats){
+      calls.increment();
+      nodes.add(stats.nodes);
+      leaves.add(stats.leaves);
+      cutoffs.add(stats.cutoffs);
+      tableHits.add(stats.tableHits);
+      tableMisses.add(stats.tableMisses);
+      wallTimes.record(stats.wallTime);
+      cpuTimes.record(stats.cpuTime);
+    }
+
+    long getCalls(){ return calls.sum(); }
+    long getNodes(){ return nodes.sum(); }
+    long getLeaves(){ return leaves.sum(); }
+    long getCutoffs(){ return cutoffs.sum(); }
+    long getTableHits(){ return tableHits.sum(); }
+    long getTableMisses(){ return tableMisses.sum(); }
+    Histogram getWallTimes(){ return wallTimes; }
+    Histogram getCpuTimes(){ return cpuTimes; }
+
+    void clear(){
+      calls.reset();
+      nodes.reset();
+      leaves.reset();
+      cutoffs.reset();
+      tableHits.reset();
+      tableMisses.reset();
+      wallTimes.clear();
+      cpuTimes.clear();
+    }
+
+    String report(){
+      long n = Math.max(1, getCalls());
+      return String.format("calls=%d nodes=%d (%d/call) leaves=%d cutoffs=%d hits=%d misses=%d%n"
+                           + "wall p50<=%s p90<=%s p99<=%s max<=%s%n"
+                           + "cpu  p50<=%s p90<=%s p99<=%s max<=%s",
+                           getCalls(), getNodes(), getNodes() / n, getLeaves(),
+                           getCutoffs(), getTableHits(), getTableMisses(),
+                           millis(wallTimes.percentile(50)), millis(wallTimes.percentile(90)),
+                           millis(wallTimes.percentile(99)), millis(wallTimes.percentile(100)),
+                           millis(cpuTimes.percentile(50)), millis(cpuTimes.percentile(90)),
+                           millis(cpuTimes.percentile(99)), millis(cpuTimes.percentile(100)));
+    }
+
+    ScheduledFuture<?> dumpEvery(long period, TimeUnit unit, PrintStream out){
+      //prints report() to out every period until the returned future is
+      //cancelled. The timer thread is a daemon, so it never keeps the JVM up
+      return timer().scheduleAtFixedRate(() -> out.println(report()),
+                                         period, period, unit);
+    }
+
+    //---------Private methods ------------
+
+    private static synchronized ScheduledExecutorService timer(){
+      if (timer == null){
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+          Thread t = new Thread(r, "search-metrics");
+          t.setDaemon(true);
+          return t;
+        });
+      }
+      return timer;
+    }
+
+    private static String millis(long nanos){
+      return String.format("%.3fms", nanos / 1e6);
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        SearchMetrics program = new SearchMetrics();
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea SearchMetrics");
+
+        testBuckets();
+        testPercentiles();
+        testRecord();
+        testMinimax();
+        testDump();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testBuckets(){
+      assert( Histogram.bucket(0) == 0 && Histogram.bucket(1) == 0 );
+      assert( Histogram.bucket(2) == 1 && Histogram.bucket(3) == 1 );
+      assert( Histogram.bucket(1024) == 10 );
+      assert( Histogram.bucket(Long.MAX_VALUE) == 62 );
+      assert( Histogram.upperBound(10) == 2047 );
+    }
+
+    private void testPercentiles(){
+      Histogram h = new Histogram();
+      assert( h.percentile(50) == 0 );
+      for (int n = 0; n < 99; n++){
+        h.record(100);
+      }
+      h.record(5000);
+      assert( h.count() == 100 );
+      assert( h.percentile(50) == 127 );
+      assert( h.percentile(99) == 127 );
+      assert( h.percentile(100) == 8191 );
+      h.clear();
+      assert( h.count() == 0 );
+    }
+
+    private void testRecord(){
+      clear();
+      SearchStats s = new SearchStats();
+      s.nodes = 10;
+      s.leaves = 6;
+      s.tableHits = 2;
+      s.wallTime = 3000;
+      record(s);
+      record(s);
+      assert( getCalls() == 2 && getNodes() == 20 && getLeaves() == 12 );
+      assert( getTableHits() == 4 );
+      assert( wallTimes.percentile(50) == 4095 );
+      assert( report().startsWith("calls=2 nodes=20 (10/call)") );
+    }
+
+    private void testMinimax(){
+      //every call is recorded, whether or not the caller asks for stats
+      clear();
+      Minimax minimax = new Minimax();
+      minimax.setMetrics(this);
+      Board b = new Board();
+      b.setBoard("xeeeeeeee");
+      minimax.setPlayingAs(Type.O);
+      minimax.getBestMove(b);
+      long first = minimax.getNodeCount();
+      SearchStats s = new SearchStats();
+      b.setBoard("xeeeoeeee");
+      minimax.setPlayingAs(Type.X);
+      minimax.getBestMove(b, 0, s);
+      assert( getCalls() == 2 );
+      assert( getNodes() == first + s.nodes );
+      assert( wallTimes.count() == 2 );
+      minimax.setMetrics(null);
+      minimax.getBestMove(b);
+      assert( getCalls() == 2 );
+    }
+
+    private void testDump(){
+      java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+      PrintStream out = new PrintStream(bytes, true);
+      ScheduledFuture<?> dump = dumpEvery(5, TimeUnit.MILLISECONDS, out);
+      long start = System.nanoTime();
+      while (bytes.size() == 0 && System.nanoTime() - start < 5000000000L){
+        Thread.onSpinWait();
+      }
+      dump.cancel(false);
+      assert( bytes.toString().startsWith("calls=") );
+    }
+}
@@ -0,0 +1,140 @@
+/* What one call to Minimax.getBestMove cost. Pass one to
+   getBestMove(board, timeBudget, stats) and it is filled in when the call
+   returns; the same object can be passed again for the next call.
+
+   nodes are all positions visited and leaves the ones scored without
+   searching further (game over or the depth limit). maxDepth is the
+   deepest position reached, in moves from the one searched. cutoffs
+   counts beta cutoffs, the positions whose remaining moves alpha-beta
+   left unsearched, once each however many moves that was. tableHits and
+   tableMisses count the transposition table probes that found an entry
+   or not.
+   Times are in nanoseconds; cpuTime includes the threads of a parallel
+   search, so it can be more than wallTime */
+
+class SearchStats {
+    long nodes;
+    long leaves;
+    int maxDepth;
+    long cutoffs;
+    long tableHits;
+    long tableMisses;
+    long wallTime;
+    long cpuTime;
+
+    void clear(){
+      nodes = 0;
+      leaves = 0;
+      maxDepth = 0;
+      cutoffs = 0;
+      tableHits = 0;
+      tableMisses = 0;
+      wallTime = 0;
+      cpuTime = 0;
+    }
+
+    double branchingFactor(){
+      //average number of moves searched from each position that was not
+      //a leaf, 0 if nothing was searched
+      long inner = nodes - leaves;
+      if (inner <= 0){
+        return 0;
+      }
+      return (double)(nodes - 1) / inner;
+    }
+
+    double hitRate(){
+      long probes = tableHits + tableMisses;
+      if (probes == 0){
+        return 0;
+      }
+      return (double) tableHits / probes;
+    }
+
+    @Override
+    public String toString(){
+      return String.format("nodes=%d leaves=%d depth=%d cutoffs=%d hits=%d misses=%d"
+                           + " wall=%.3fms cpu=%.3fms", nodes, leaves, maxDepth,
+                           cutoffs, tableHits, tableMisses, wallTime / 1e6, cpuTime / 1e6);
+    }
+
+    static long cpuTime(){
+      //cpu nanoseconds used by this thread so far, 0 if the JVM cannot say
+      java.lang.management.ThreadMXBean bean =
+        java.lang.management.ManagementFactory.getThreadMXBean();
+      if (!bean.isCurrentThreadCpuTimeSupported()){
+        return 0;
+      }
+      return bean.getCurrentThreadCpuTime();
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        SearchStats program = new SearchStats();
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea SearchStats");
+
+        testRates();
+        testSearch();
+        testLookup();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testRates(){
+      clear();
+      assert( branchingFactor() == 0 && hitRate() == 0 );
+      //a root with 3 children, all leaves
+      nodes = 4;
+      leaves = 3;
+      assert( branchingFactor() == 3 );
+      tableHits = 1;
+      tableMisses = 3;
+      assert( hitRate() == 0.25 );
+      assert( toString().startsWith("nodes=4 leaves=3") );
+    }
+
+    private void testSearch(){
+      Minimax minimax = new Minimax();
+      Board b = new Board();
+      b.setBoard("xeeeeeeee");
+      minimax.setPlayingAs(Type.O);
+      minimax.getBestMove(b, 0, this);
+      assert( nodes == minimax.getNodeCount() && nodes > 0 );
+      assert( leaves > 0 && leaves < nodes );
+      //O's move then at most 7 more
+      assert( maxDepth > 1 && maxDepth <= 8 );
+      assert( cutoffs > 0 );
+      assert( tableMisses > 0 );
+      assert( wallTime > 0 );
+      //asking again is answered from the table
+      minimax.getBestMove(b, 0, this);
+      assert( nodes == 0 && leaves == 0 && tableHits == 1 );
+
+      //the counts of a parallel search add up over its threads
+      Minimax parallel = new Minimax();
+      parallel.setPool(java.util.concurrent.ForkJoinPool.commonPool());
+      parallel.setPlayingAs(Type.O);
+      parallel.getBestMove(b, 0, this);
+      assert( nodes == parallel.getNodeCount() && leaves > 0 );
+      assert( maxDepth > 1 );
+    }
+
+    private void testLookup(){
+      Minimax minimax = new Minimax();
+      minimax.setLookupTable(LookupTable.solve());
+      Board b = new Board();
+      b.setBoard("xoxooxeee");
+      minimax.setPlayingAs(Type.O);
+      minimax.getBestMove(b, 0, this);
+      assert( nodes == 0 && maxDepth == 0 );
+      assert( wallTime >= 0 );
+    }
+}
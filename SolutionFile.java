@@ -0,0 +1,171 @@
+/* Saves a solved LookupTable to disk and maps it back in, so a new
+   process can answer moves from its first turn without solving the game.
+
+   The file is a header followed by one entry per position index:
+
+     int   magic        "OXOS"
+     int   version
+     int   board size
+     int   win length
+     int   entry count
+     long  CRC32 of the entries
+     short entries[count]  high byte best move + 1, low byte value
+
+   All numbers are big-endian. A file with the wrong magic, version, board
+   size, win length or count, or whose checksum does not match, is treated
+   as stale and not used */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.zip.CRC32;
+
+class SolutionFile {
+    static final int MAGIC = 0x4F584F53;
+    static final int VERSION = 1;
+    private static final int HEADER = 5 * 4 + 8;
+    private static final int SIZE = 3;
+    private static final int WINLENGTH = 3;
+
+    static void write(LookupTable table, Path path) throws IOException {
+      int count = table.entries();
+      ByteBuffer entries = ByteBuffer.allocate(count * 2);
+      for (int i = 0; i < count; i++){
+        entries.putShort(pack(table.moveAt(i), table.valueAt(i)));
+      }
+      CRC32 crc = new CRC32();
+      crc.update(entries.array());
+
+      ByteBuffer header = ByteBuffer.allocate(HEADER);
+      header.putInt(MAGIC).putInt(VERSION).putInt(SIZE).putInt(WINLENGTH);
+      header.putInt(count).putLong(crc.getValue());
+      header.flip();
+      entries.flip();
+
+      //write to a temporary file first so readers never see half a file
+      Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+      try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+        while (header.hasRemaining()){ out.write(header); }
+        while (entries.hasRemaining()){ out.write(entries); }
+      }
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static LookupTable read(Path path){
+      //returns null if the file is missing, unreadable or stale
+      if (!Files.isRegularFile(path)){
+        return null;
+      }
+      try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)){
+        long length = in.size();
+        if (length < HEADER){
+          return null;
+        }
+        MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        if (map.getInt() != MAGIC || map.getInt() != VERSION
+            || map.getInt() != SIZE || map.getInt() != WINLENGTH){
+          return null;
+        }
+        int count = map.getInt();
+        long checksum = map.getLong();
+        if (count != LookupTable.ENTRIES || length != HEADER + 2L * count){
+          return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(map.slice());
+        if (crc.getValue() != checksum){
+          return null;
+        }
+        byte[] moves = new byte[count];
+        byte[] values = new byte[count];
+        for (int i = 0; i < count; i++){
+          short entry = map.getShort();
+          moves[i] = (byte)(((entry >> 8) & 0xFF) - 1);
+          values[i] = (byte) entry;
+        }
+        return new LookupTable(values, moves);
+      } catch (IOException e){
+        return null;
+      }
+    }
+
+    //---------Private methods ------------
+
+    private static short pack(int move, int value){
+      return (short)(((move + 1) << 8) | (value & 0xFF));
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        SolutionFile program = new SolutionFile();
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea SolutionFile");
+
+        try {
+          Path dir = Files.createTempDirectory("oxo");
+          testRoundTrip(dir);
+          testMissing(dir);
+          testStale(dir);
+          testCorrupt(dir);
+          for (Path f : Files.list(dir).toArray(Path[]::new)){
+            Files.delete(f);
+          }
+          Files.delete(dir);
+        } catch (IOException e){
+          throw new Error(e);
+        }
+
+        System.out.println("All tests pass");
+    }
+
+    private void testRoundTrip(Path dir) throws IOException {
+      LookupTable solved = LookupTable.solve();
+      Path path = dir.resolve("oxo.sol");
+      write(solved, path);
+      assert( Files.size(path) == HEADER + 2L * LookupTable.ENTRIES );
+      LookupTable loaded = read(path);
+      assert( loaded != null );
+      assert( loaded.positions() == solved.positions() );
+      for (int i = 0; i < LookupTable.ENTRIES; i++){
+        assert( loaded.moveAt(i) == solved.moveAt(i) );
+        assert( loaded.valueAt(i) == solved.valueAt(i) );
+      }
+      Board b = new Board();
+      b.setBoard("xoxooxeee");
+      assert( loaded.getMove(b, Type.O) == 7 );
+    }
+
+    private void testMissing(Path dir){
+      assert( read(dir.resolve("missing.sol")) == null );
+    }
+
+    private void testStale(Path dir) throws IOException {
+      Path path = dir.resolve("stale.sol");
+      write(LookupTable.solve(), path);
+      byte[] bytes = Files.readAllBytes(path);
+      bytes[7] = 2; //version 2
+      Files.write(path, bytes);
+      assert( read(path) == null );
+    }
+
+    private void testCorrupt(Path dir) throws IOException {
+      Path path = dir.resolve("corrupt.sol");
+      write(LookupTable.solve(), path);
+      byte[] bytes = Files.readAllBytes(path);
+      bytes[HEADER + 100] ^= 1;
+      Files.write(path, bytes);
+      assert( read(path) == null );
+      //truncated
+      Files.write(path, java.util.Arrays.copyOf(bytes, HEADER + 10));
+      assert( read(path) == null );
+    }
+}
@@ -0,0 +1,159 @@
+/* The 8 symmetries of a square board: the identity, three rotations and
+   four reflections. Two positions that are the same up to one of these
+   have the same value and equivalent best moves, so the search and the
+   caches only need to deal with one of them, the canonical form.
+
+   Transform t moves the piece on square k to square map(t, k); unmap
+   takes a square back again. Squares are numbered row * size + col */
+
+class Symmetry {
+    static final int COUNT = 8;
+    private static Symmetry[] bySize = new Symmetry[Board.MAXSIZE + 1];
+    private int size;
+    private int[][] forward;
+    private int[][] backward;
+
+    Symmetry(int size){
+      this.size = size;
+      int cells = size * size;
+      forward = new int[COUNT][cells];
+      backward = new int[COUNT][cells];
+      for (int t = 0; t < COUNT; t++){
+        for (int row = 0; row < size; row++){
+          for (int col = 0; col < size; col++){
+            int k = row * size + col;
+            int to = transform(t, row, col);
+            forward[t][k] = to;
+            backward[t][to] = k;
+          }
+        }
+      }
+    }
+
+    static synchronized Symmetry of(int size){
+      //one shared, read only instance per board size
+      if (bySize[size] == null){
+        bySize[size] = new Symmetry(size);
+      }
+      return bySize[size];
+    }
+
+    int map(int t, int cell){
+      return forward[t][cell];
+    }
+
+    int unmap(int t, int cell){
+      return backward[t][cell];
+    }
+
+    int transformMask(int t, int mask){
+      //moves every set bit of a bitboard mask to its image under t
+      int result = 0;
+      for (int k = 0; k < size * size; k++){
+        if ((mask & (1 << k)) != 0){
+          result |= 1 << forward[t][k];
+        }
+      }
+      return result;
+    }
+
+    String transform(int t, String board){
+      //applies t to a board in the "xoxooxeee" form
+      char[] cells = new char[size * size];
+      for (int k = 0; k < cells.length; k++){
+        cells[forward[t][k]] = board.charAt(k);
+      }
+      return new String(cells);
+    }
+
+    int canonicalTransform(String board){
+      //the transform giving the smallest string, the first one if several
+      int best = 0;
+      String bestForm = board;
+      for (int t = 1; t < COUNT; t++){
+        String form = transform(t, board);
+        if (form.compareTo(bestForm) < 0){
+          best = t;
+          bestForm = form;
+        }
+      }
+      return best;
+    }
+
+    String canonical(String board){
+      return transform(canonicalTransform(board), board);
+    }
+
+    //---------Private methods ------------
+
+    private int transform(int t, int row, int col){
+      int last = size - 1;
+      switch(t){
+        case 0: return row * size + col;                    //identity
+        case 1: return col * size + (last - row);           //rotate 90
+        case 2: return (last - row) * size + (last - col);  //rotate 180
+        case 3: return (last - col) * size + row;           //rotate 270
+        case 4: return row * size + (last - col);           //mirror left-right
+        case 5: return (last - row) * size + col;           //mirror top-bottom
+        case 6: return col * size + row;                    //main diagonal
+        default: return (last - col) * size + (last - row); //anti diagonal
+      }
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        Symmetry program = new Symmetry(3);
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea Symmetry");
+
+        testMap();
+        testTransform();
+        testCanonical();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testMap(){
+      //the corner a1 visits every corner, the centre never moves
+      assert( map(0, 0) == 0 );
+      assert( map(1, 0) == 2 );
+      assert( map(2, 0) == 8 );
+      assert( map(3, 0) == 6 );
+      for (int t = 0; t < COUNT; t++){
+        assert( map(t, 4) == 4 );
+        for (int k = 0; k < size * size; k++){
+          assert( unmap(t, map(t, k)) == k );
+        }
+      }
+      assert( transformMask(4, 0b000000001) == 0b000000100 );
+      assert( transformMask(6, 0b000000010) == 0b000001000 );
+    }
+
+    private void testTransform(){
+      assert( transform(0, "xoeeeeeee").equals("xoeeeeeee") );
+      assert( transform(1, "xoeeeeeee").equals("eexeeoeee") );
+      assert( transform(4, "xoeeeeeee").equals("eoxeeeeee") );
+      assert( transform(5, "xoeeeeeee").equals("eeeeeexoe") );
+    }
+
+    private void testCanonical(){
+      //every corner opening has the same canonical form
+      String a = canonical("xeeeeeeee");
+      assert( a.equals(canonical("eexeeeeee")) );
+      assert( a.equals(canonical("eeeeeexee")) );
+      assert( a.equals(canonical("eeeeeeeex")) );
+      assert( !a.equals(canonical("exeeeeeee")) );
+      //the canonical form is one of the 8 images
+      String p = "oexexeeeo";
+      int t = canonicalTransform(p);
+      assert( transform(t, p).equals(canonical(p)) );
+      assert( canonical(canonical(p)).equals(canonical(p)) );
+    }
+}
@@ -0,0 +1,430 @@
+/* Solves a whole small variant backwards, from the end of the game to the
+   start, for boards of up to 16 squares such as 4x4 where the live search
+   is too slow. Positions are taken a level at a time, the level being the
+   number of pieces on the board: the full board first, then one piece
+   fewer, and so on down to the empty board. Every move from a position
+   adds a piece, so each level only needs the one after it, and the
+   positions of a level are solved in parallel. Stopping at a level part
+   way down gives an endgame table, for bigger variants, which the search
+   uses for the positions with at least that many pieces.
+
+   Positions are indexed by their base 3 rank, as in LookupTable: each
+   square 0 empty, 1 X or 2 O, square 0 the lowest digit. X always starts,
+   so the player to move follows from the number of pieces, and positions
+   with the wrong number of pieces are left unknown. Each entry is a byte
+   packing the outcome for the player to move (2 bits: WIN, DRAW or LOSS,
+   0 for unknown) with the number of moves to the end of the game with
+   best play (6 bits). A 4x4 table is 3^16 bytes, about 43MB.
+
+   write() saves a table in the form of SolutionFile: a header of magic
+   "OXOT", version, board size, win length, entry count and CRC32, then
+   the entries. read() maps the file and probes it in place, so loading it
+   costs little more than the checksum. Minimax.setTablebase makes the
+   search look positions up here instead of searching below them */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32;
+
+class Tablebase implements MoveProvider {
+    static final int MAGIC = 0x4F584F54;
+    static final int VERSION = 1;
+    static final int WIN = 1, DRAW = 2, LOSS = 3;
+    static final int MAXCELLS = 16;
+    private static final int HEADER = 5 * 4 + 8;
+    private int size;
+    private int winLength;
+    private int cells;
+    private int[] powers;
+    private int[] base3;
+    private int[] wins;
+    private ByteBuffer entries;
+
+    private Tablebase(int size, int winLength, ByteBuffer entries){
+      this.size = size;
+      this.winLength = winLength;
+      cells = size * size;
+      powers = new int[cells + 1];
+      powers[0] = 1;
+      for (int k = 1; k <= cells; k++){
+        powers[k] = powers[k - 1] * 3;
+      }
+      base3 = new int[1 << cells];
+      for (int mask = 1; mask < base3.length; mask++){
+        int low = Integer.numberOfTrailingZeros(mask);
+        base3[mask] = base3[mask & (mask - 1)] + powers[low];
+      }
+      Lines lines = Lines.of(size, winLength);
+      wins = new int[lines.count()];
+      for (int n = 0; n < wins.length; n++){
+        for (int k : lines.cells(n)){
+          wins[n] |= 1 << k;
+        }
+      }
+      this.entries = entries == null ? ByteBuffer.allocate(powers[cells]) : entries;
+    }
+
+    static Tablebase solve(int size, int winLength){
+      return solve(size, winLength, 0);
+    }
+
+    static Tablebase solve(int size, int winLength, int minPieces){
+      //solves the positions with minPieces or more pieces on the board
+      if (size * size > MAXCELLS){
+        throw new IllegalArgumentException("Cannot solve boards of over "
+                                           + MAXCELLS + " squares");
+      }
+      Tablebase table = new Tablebase(size, winLength, null);
+      for (int pieces = table.cells; pieces >= Math.max(0, minPieces); pieces--){
+        int level = pieces;
+        IntStream.range(0, 1 << table.cells).parallel()
+                 .filter(occupied -> Integer.bitCount(occupied) == level)
+                 .forEach(occupied -> table.solveLevel(occupied, level));
+      }
+      return table;
+    }
+
+    boolean covers(Board board){
+      return board.getSize() == size && board.getWinLength() == winLength;
+    }
+
+    int probe(Board board, Type toMove){
+      //the packed entry for the position, 0 if it is not known
+      if (!covers(board)){
+        return 0;
+      }
+      int xs = board.getMask(Type.X);
+      int os = board.getMask(Type.O);
+      if (toMove != toMove(Integer.bitCount(xs), Integer.bitCount(os))){
+        return 0;
+      }
+      return entries.get(base3[xs] + 2 * base3[os]) & 0xFF;
+    }
+
+    static int result(int entry){
+      return entry & 3;
+    }
+
+    static int distance(int entry){
+      return entry >>> 2;
+    }
+
+    int getValue(Board board, Type toMove){
+      //1 if toMove wins with best play, -1 if it loses, 0 for a draw
+      int result = result(probe(board, toMove));
+      return result == WIN ? 1 : result == LOSS ? -1 : 0;
+    }
+
+    int getDistance(Board board, Type toMove){
+      //moves to the end of the game with best play, -1 if not known
+      int entry = probe(board, toMove);
+      return entry == 0 ? -1 : distance(entry);
+    }
+
+    int getMove(Board board, Type toMove){
+      //the best square, the quickest win or the slowest loss, the first
+      //such square if there are several; -1 if not known or game over
+      int entry = probe(board, toMove);
+      if (entry == 0 || board.isGameOver()){
+        return -1;
+      }
+      int xs = board.getMask(Type.X);
+      int os = board.getMask(Type.O);
+      int rank = base3[xs] + 2 * base3[os];
+      int digit = toMove == Type.X ? 1 : 2;
+      int want = result(entry) == WIN ? LOSS : result(entry) == LOSS ? WIN : DRAW;
+      for (int k = 0; k < cells; k++){
+        if (((xs | os) & (1 << k)) != 0){
+          continue;
+        }
+        int child = entries.get(rank + digit * powers[k]) & 0xFF;
+        if (result(child) == want && distance(child) + 1 == distance(entry)){
+          return k;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    public String chooseMove(Board board, Type player){
+      //"" for positions the table does not know
+      int k = getMove(board, player);
+      if (k < 0){
+        return "";
+      }
+      return (char)('a' + k / size) + Integer.toString(k % size + 1);
+    }
+
+    long positions(){
+      //number of positions solved
+      long known = 0;
+      for (int i = 0; i < entries.capacity(); i++){
+        if (entries.get(i) != 0){
+          known++;
+        }
+      }
+      return known;
+    }
+
+    void write(Path path) throws IOException {
+      ByteBuffer all = entries.duplicate();
+      all.clear();
+      CRC32 crc = new CRC32();
+      crc.update(all.duplicate());
+      ByteBuffer header = ByteBuffer.allocate(HEADER);
+      header.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(winLength);
+      header.putInt(all.capacity()).putLong(crc.getValue());
+      header.flip();
+
+      //write to a temporary file first so readers never see half a file
+      Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+      try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+             StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)){
+        while (header.hasRemaining()){ out.write(header); }
+        while (all.hasRemaining()){ out.write(all); }
+      }
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static Tablebase read(Path path){
+      //returns null if the file is missing, unreadable or stale
+      if (!Files.isRegularFile(path)){
+        return null;
+      }
+      try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)){
+        long length = in.size();
+        if (length < HEADER){
+          return null;
+        }
+        MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        if (map.getInt() != MAGIC || map.getInt() != VERSION){
+          return null;
+        }
+        int size = map.getInt();
+        int winLength = map.getInt();
+        int count = map.getInt();
+        long checksum = map.getLong();
+        if (size < 1 || size * size > MAXCELLS || winLength < 1 || winLength > size
+            || count != (int) Math.pow(3, size * size) || length != HEADER + (long) count){
+          return null;
+        }
+        ByteBuffer body = map.slice();
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        if (crc.getValue() != checksum){
+          return null;
+        }
+        return new Tablebase(size, winLength, body);
+      } catch (IOException e){
+        return null;
+      }
+    }
+
+    //---------Private methods ------------
+
+    private void solveLevel(int occupied, int pieces){
+      //every way to share the occupied squares out with X having the
+      //extra piece when there is an odd number
+      int xCount = (pieces + 1) / 2;
+      if (xCount == 0){
+        solve(0, 0, Type.X);
+        return;
+      }
+      int[] squares = new int[pieces];
+      for (int n = 0, mask = occupied; n < pieces; n++, mask &= mask - 1){
+        squares[n] = Integer.numberOfTrailingZeros(mask);
+      }
+      Type toMove = toMove(xCount, pieces - xCount);
+      //Gosper's hack walks the xCount-bit subsets of the pieces in order
+      int subset = (1 << xCount) - 1;
+      while (subset < (1 << pieces)){
+        int xs = 0;
+        for (int bits = subset; bits != 0; bits &= bits - 1){
+          xs |= 1 << squares[Integer.numberOfTrailingZeros(bits)];
+        }
+        solve(xs, occupied & ~xs, toMove);
+        int lowest = subset & -subset;
+        int ripple = subset + lowest;
+        subset = (((ripple ^ subset) >>> 2) / lowest) | ripple;
+      }
+    }
+
+    private void solve(int xs, int os, Type toMove){
+      int rank = base3[xs] + 2 * base3[os];
+      Type mover = toMove == Type.X ? Type.O : Type.X;
+      boolean xLine = hasLine(xs);
+      boolean oLine = hasLine(os);
+      if (xLine || oLine){
+        //the game is over; when the player to move has a line too the
+        //position cannot come up in a game
+        boolean moverWon = mover == Type.X ? xLine : oLine;
+        entries.put(rank, pack(moverWon ? LOSS : WIN, 0));
+        return;
+      }
+      int occupied = xs | os;
+      if (occupied == (1 << cells) - 1){
+        entries.put(rank, pack(DRAW, 0));
+        return;
+      }
+      int digit = toMove == Type.X ? 1 : 2;
+      int win = Integer.MAX_VALUE;
+      boolean draw = false;
+      int loss = -1;
+      for (int k = 0; k < cells; k++){
+        if ((occupied & (1 << k)) != 0){
+          continue;
+        }
+        int child = entries.get(rank + digit * powers[k]) & 0xFF;
+        int result = result(child);
+        if (result == LOSS){
+          win = Math.min(win, distance(child) + 1);
+        } else if (result == DRAW){
+          draw = true;
+        } else {
+          loss = Math.max(loss, distance(child) + 1);
+        }
+      }
+      if (win != Integer.MAX_VALUE){
+        entries.put(rank, pack(WIN, win));
+      } else if (draw){
+        //a drawn game always runs until the board is full
+        entries.put(rank, pack(DRAW, cells - Integer.bitCount(occupied)));
+      } else {
+        entries.put(rank, pack(LOSS, loss));
+      }
+    }
+
+    private boolean hasLine(int pieces){
+      for (int line : wins){
+        if ((pieces & line) == line){
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static byte pack(int result, int distance){
+      return (byte)((distance << 2) | result);
+    }
+
+    private static Type toMove(int xs, int os){
+      //X starts, so X is to move when the counts are equal
+      if (xs == os){ return Type.X; }
+      if (xs == os + 1){ return Type.O; }
+      return Type.Impossible;
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        Tablebase program = solve(3, 3);
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea Tablebase");
+
+        testAgainstLookup();
+        testMoves();
+        testFile();
+        testFourByFour();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testAgainstLookup(){
+      //every position of a game X starts agrees with the solved game
+      LookupTable solved = LookupTable.solve();
+      Board b = new Board();
+      int checked = 0;
+      for (int rank = 0; rank < powers[cells]; rank++){
+        StringBuilder s = new StringBuilder();
+        int xs = 0, os = 0;
+        for (int k = 0, r = rank; k < cells; k++, r /= 3){
+          s.append("exo".charAt(r % 3));
+          if (r % 3 == 1){ xs++; }
+          if (r % 3 == 2){ os++; }
+        }
+        Type player = toMove(xs, os);
+        b.setBoard(s.toString());
+        if (player == Type.Impossible || !solved.contains(b, player)){
+          continue;
+        }
+        int value = solved.getValue(b, player);
+        int expected = value == 0 ? 0 : (value > 0) == (player == Type.X) ? 1 : -1;
+        assert( getValue(b, player) == expected );
+        if (!b.isGameOver()){
+          assert( getDistance(b, player) == solved.getDistance(b, player) );
+        }
+        checked++;
+      }
+      assert( checked > 5000 );
+      assert( probe(b, Type.Impossible) == 0 );
+      b.setBoard("xxeeeeeee");
+      assert( probe(b, Type.X) == 0 && probe(b, Type.O) == 0 );
+    }
+
+    private void testMoves(){
+      Board b = new Board();
+      b.setBoard("xoxooxeee");
+      assert( chooseMove(b, Type.X).equals("c3") );
+      b.setBoard("xeeeeeeee");
+      assert( chooseMove(b, Type.O).equals("b2") );
+      assert( getValue(b, Type.O) == 0 && getDistance(b, Type.O) == 8 );
+      b.setBoard("xxxooeeee");
+      assert( getMove(b, Type.O) == -1 && getValue(b, Type.O) == -1 );
+      assert( chooseMove(new Board(4, 4), Type.X).equals("") );
+    }
+
+    private void testFile(){
+      try {
+        Path path = Files.createTempFile("oxo", ".tb");
+        write(path);
+        Tablebase loaded = read(path);
+        assert( loaded != null && loaded.positions() == positions() );
+        Board b = new Board();
+        b.setBoard("xoxooxeee");
+        assert( loaded.probe(b, Type.X) == probe(b, Type.X) );
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[HEADER + 100] ^= 1;
+        Files.write(path, bytes);
+        assert( read(path) == null );
+        Files.write(path, java.util.Arrays.copyOf(bytes, 10));
+        assert( read(path) == null );
+        Files.delete(path);
+        assert( read(path) == null );
+      } catch (IOException e){
+        throw new Error(e);
+      }
+    }
+
+    private void testFourByFour(){
+      //4 in a row on 4x4 is a draw, and the search agrees with the table
+      Tablebase four = solve(4, 4);
+      Board b = new Board(4, 4);
+      assert( four.getValue(b, Type.X) == 0 && four.getDistance(b, Type.X) == 16 );
+      b.setBoard("xxxeoooeeeeeeeee");
+      assert( four.getValue(b, Type.X) == 1 && four.chooseMove(b, Type.X).equals("a4") );
+      assert( four.getDistance(b, Type.X) == 1 );
+      String[] positions = {"xoeeexeeeeeeeeee", "xeeeeoeeeexeeeoe", "xoxeeoeexeeeeeee"};
+      for (String position : positions){
+        b.setBoard(position);
+        Type player = Type.X;
+        if (position.chars().filter(c -> c == 'x').count()
+            > position.chars().filter(c -> c == 'o').count()){
+          player = Type.O;
+        }
+        Minimax minimax = new Minimax();
+        minimax.setPlayingAs(player);
+        minimax.getBestMove(b);
+        assert( four.getValue(b, player) == minimax.getValue() );
+        assert( four.getDistance(b, player) == minimax.getDistance() );
+      }
+    }
+}
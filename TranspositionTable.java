@@ -0,0 +1,200 @@
+/* A fixed size cache of search results keyed by a Board's Zobrist hash.
+   Each entry keeps the score, the search depth it was found at (draft),
+   whether the score is exact or only a bound, and the best move.
+
+   Entries are packed into a single long so the table is just two long
+   arrays. Each index holds a bucket of two slots: the first keeps the
+   deepest result seen for that index, the second is always replaced.
+   The table is meant to live as long as the Minimax that owns it, so
+   positions found in one game are still known in the next
+
+   Several search threads may share one table without locking. Each slot
+   stores the key xored with the entry, so a slot that one thread read
+   while another was half way through writing it does not match any key
+   and is treated as a miss */
+
+class TranspositionTable {
+    static final int EXACT = 0;
+    static final int LOWER = 1;
+    static final int UPPER = 2;
+    //xored into the key when X is to move, as scores are for the side to move
+    static final long SIDE = 0x9E3779B97F4A7C15L;
+
+    static long variant(int size, int winLength){
+      //xored into the key for the board size and win length. Every size
+      //draws its Zobrist keys from the same array, so without it the same
+      //pieces on 4x4 with 3 or 4 in a row, or on 4x4 and 5x5, would share
+      //an entry
+      long z = (size * 64L + winLength) * SIDE;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+    }
+
+    private static final long VALID = 1L << 63;
+    private long[] keys;
+    private long[] data;
+    private int mask;
+
+    TranspositionTable(int size){
+      //size is rounded up to a power of two
+      int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+      keys = new long[capacity];
+      data = new long[capacity];
+      mask = capacity / 2 - 1;
+    }
+
+    long probe(long key){
+      //returns the packed entry for key, or 0 if it is not in the table
+      int slot = (int)(key & mask) * 2;
+      long entry = data[slot];
+      if (entry != 0 && (keys[slot] ^ entry) == key){
+        return entry;
+      }
+      entry = data[slot + 1];
+      if (entry != 0 && (keys[slot + 1] ^ entry) == key){
+        return entry;
+      }
+      return 0;
+    }
+
+    void store(long key, int score, int draft, int flag, int move){
+      long entry = pack(score, draft, flag, move);
+      int slot = (int)(key & mask) * 2;
+      long old = data[slot];
+      if (old == 0 || (keys[slot] ^ old) == key || draft >= draft(old)){
+        keys[slot] = key ^ entry;
+        data[slot] = entry;
+        return;
+      }
+      keys[slot + 1] = key ^ entry;
+      data[slot + 1] = entry;
+    }
+
+    void clear(){
+      for (int i = 0; i < data.length; i++){
+        keys[i] = 0;
+        data[i] = 0;
+      }
+    }
+
+    int size(){
+      return data.length;
+    }
+
+    static int score(long entry){
+      return (int)(entry & 0xFFFF) - 32768;
+    }
+
+    static int draft(long entry){
+      return (int)((entry >>> 16) & 0x3FF);
+    }
+
+    static int flag(long entry){
+      return (int)((entry >>> 26) & 0x3);
+    }
+
+    static int move(long entry){
+      //-1 when no move was stored
+      return (int)((entry >>> 28) & 0x3FF) - 1;
+    }
+
+    //---------Private methods ------------
+
+    private static long pack(int score, int draft, int flag, int move){
+      return VALID
+           | ((long)(move + 1) << 28)
+           | ((long)flag << 26)
+           | ((long)draft << 16)
+           | (long)(score + 32768);
+    }
+
+    // ---------- Testing -----------
+
+    public static void main(String[] args) {
+        TranspositionTable program = new TranspositionTable(16);
+        program.run();
+    }
+
+    // Run the tests
+    private void run() {
+        boolean testing = false;
+        assert(testing = true);
+        if (! testing) throw new Error("Use java -ea TranspositionTable");
+
+        testPack();
+        testProbe();
+        testReplacement();
+        testTornEntry();
+        testVariant();
+
+        System.out.println("All tests pass");
+    }
+
+    private void testPack(){
+      long e = pack(-9, 7, UPPER, 8);
+      assert( score(e) == -9 );
+      assert( draft(e) == 7 );
+      assert( flag(e) == UPPER );
+      assert( move(e) == 8 );
+      e = pack(10000, 0, EXACT, -1);
+      assert( score(e) == 10000 );
+      assert( move(e) == -1 );
+      //the largest board has 676 squares
+      e = pack(-677, 676, LOWER, 675);
+      assert( score(e) == -677 && draft(e) == 676 );
+      assert( flag(e) == LOWER && move(e) == 675 );
+      assert( e != 0 );
+    }
+
+    private void testProbe(){
+      clear();
+      assert( size() == 16 );
+      assert( probe(12345L) == 0 );
+      store(12345L, 3, 4, LOWER, 2);
+      long e = probe(12345L);
+      assert( e != 0 );
+      assert( score(e) == 3 && draft(e) == 4 && flag(e) == LOWER );
+      //same index, different key
+      assert( probe(12345L + 8) == 0 );
+      store(12345L, 5, 4, EXACT, 1);
+      assert( score(probe(12345L)) == 5 );
+    }
+
+    private void testReplacement(){
+      clear();
+      long a = 1, b = 1 + 8, c = 1 + 16;
+      store(a, 1, 6, EXACT, 0);
+      //a shallower entry goes to the always-replace slot
+      store(b, 2, 2, EXACT, 0);
+      assert( probe(a) != 0 && probe(b) != 0 );
+      store(c, 3, 1, EXACT, 0);
+      assert( probe(a) != 0 );
+      assert( probe(b) == 0 );
+      assert( probe(c) != 0 );
+      //a deeper entry takes over the first slot
+      store(b, 4, 7, EXACT, 0);
+      assert( probe(b) != 0 );
+      assert( probe(a) == 0 );
+    }
+
+    private void testTornEntry(){
+      clear();
+      store(5, 1, 3, EXACT, 2);
+      //another thread's entry landing in the slot without its key
+      int slot = 5 * 2;
+      data[slot] = pack(7, 3, EXACT, 4);
+      assert( probe(5) == 0 );
+    }
+
+    private void testVariant(){
+      //every size and win length salts the key differently
+      java.util.Set<Long> seen = new java.util.HashSet<>();
+      for (int size = 1; size <= Board.MAXSIZE; size++){
+        for (int win = 1; win <= size; win++){
+          assert( seen.add(variant(size, win)) );
+          assert( seen.add(variant(size, win) ^ SIDE) );
+        }
+      }
+    }
+}